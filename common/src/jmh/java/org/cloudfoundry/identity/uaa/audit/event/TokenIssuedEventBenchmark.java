@@ -0,0 +1,98 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit.event;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.audit.AuditEvent;
+import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+
+/**
+ * The audit record of an issued token: as it was made before (a new mapper
+ * for each event, and the claims decoded from the token), with the claims
+ * decoded by the shared reader, and with the claims given by the issuer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenIssuedEventBenchmark {
+
+    private Map<String, Object> claims = new LinkedHashMap<String, Object>();
+
+    private DefaultOAuth2AccessToken token;
+
+    @Setup
+    public void setup() throws Exception {
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("sub", "12345");
+        claims.put("scope", new LinkedHashSet<String>(Arrays.asList("openid", "scim.me", "cloud_controller.read")));
+        claims.put("client_id", "app");
+        claims.put("cid", "app");
+        claims.put("grant_type", "password");
+        claims.put("user_id", "12345");
+        claims.put("user_name", "olds");
+        claims.put("email", "olds@vmware.com");
+        claims.put("iat", System.currentTimeMillis() / 1000);
+        claims.put("exp", System.currentTimeMillis() / 1000 + 43200);
+        claims.put("iss", "http://localhost:8080/uaa/oauth/token");
+        claims.put("aud", Arrays.asList("app", "scim", "cloud_controller"));
+        String jwt = JwtHelper.encode(new ObjectMapper().writeValueAsString(claims), new MacSigner("benchmark-key"))
+                        .getEncoded();
+        token = new DefaultOAuth2AccessToken(jwt);
+        token.setScope(new LinkedHashSet<String>(Arrays.asList("openid", "scim.me", "cloud_controller.read")));
+    }
+
+    @Benchmark
+    public AuditEvent previous() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        String data = mapper.writeValueAsString(token.getScope());
+        Map<String, Object> decoded = mapper.readValue(JwtHelper.decode(token.getValue()).getClaims(),
+                        new TypeReference<Map<String, Object>>() {
+                        });
+        return new AuditEvent(AuditEventType.TokenIssuedEvent, decoded.get("user_id").toString(), null, data,
+                        System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public AuditEvent decodedClaims() {
+        return new TokenIssuedEvent(token, null).getAuditEvent();
+    }
+
+    @Benchmark
+    public AuditEvent givenClaims() {
+        return new TokenIssuedEvent(token, null, claims).getAuditEvent();
+    }
+}
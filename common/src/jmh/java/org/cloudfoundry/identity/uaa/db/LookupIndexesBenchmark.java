@@ -0,0 +1,202 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.codestore.JdbcExpiringCodeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.googlecode.flyway.core.Flyway;
+
+/**
+ * The lookups of the approval, membership, code and audit stores against an
+ * HSQLDB schema created by the real migrations, seeded with the same data
+ * before and after the indexes added in 2.0.3 and 2.0.4. The plan HSQLDB
+ * chooses for each lookup is printed when each trial starts. External group
+ * mappings are left out, as they are looked up by LOWER(external_group),
+ * which only PostgreSQL can index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupIndexesBenchmark {
+
+    private static final String APPROVALS_SQL = "select user_id,client_id,scope,expiresAt,status,lastModifiedAt "
+                    + "from authz_approvals where user_id=? and client_id=?";
+
+    private static final String GROUPS_BY_MEMBER_SQL = "select distinct(group_id) from group_membership where member_id=?";
+
+    private static final String AUDIT_SQL = "select event_type, principal_id, origin, event_data, created from sec_audit "
+                    + "where principal_id=? and created > ? order by created desc";
+
+    private static final int USERS = 20000;
+
+    private static final int GROUPS = 200;
+
+    private static final int CODES = 50000;
+
+    private static final int EVENTS = 100000;
+
+    @Param({ "false", "true" })
+    private boolean indexed;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private long now = System.currentTimeMillis();
+
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:lookups", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setLocations("classpath:org/cloudfoundry/identity/uaa/db/hsqldb/");
+        if (!indexed) {
+            flyway.setTarget("2.0.2");
+        }
+        flyway.migrate();
+        seed();
+        explain(APPROVALS_SQL);
+        explain(GROUPS_BY_MEMBER_SQL);
+        explain(JdbcExpiringCodeStore.deleteExpired);
+        explain(AUDIT_SQL);
+    }
+
+    @TearDown
+    public void tearDown() {
+        jdbcTemplate.execute("shutdown");
+    }
+
+    @Benchmark
+    public int approvalsOfUserForClient() {
+        next++;
+        return jdbcTemplate.queryForList(APPROVALS_SQL, user(next % USERS), "app" + next % 3).size();
+    }
+
+    @Benchmark
+    public int groupsOfMember() {
+        next++;
+        return jdbcTemplate.queryForList(GROUPS_BY_MEMBER_SQL, String.class, user(next % USERS)).size();
+    }
+
+    @Benchmark
+    public int expiredCodes() {
+        // nothing has expired, as on most runs of the sweeper
+        return jdbcTemplate.update(JdbcExpiringCodeStore.deleteExpired, now);
+    }
+
+    @Benchmark
+    public int recentEventsOfPrincipal() {
+        next++;
+        return jdbcTemplate.queryForList(AUDIT_SQL, user(next % USERS), new Timestamp(now - 3600000)).size();
+    }
+
+    private void seed() {
+        batch("insert into authz_approvals (user_id, client_id, scope, expiresAt, status, lastModifiedAt) "
+                        + "values (?, ?, ?, ?, 'APPROVED', ?)", USERS * 6, new Row() {
+            @Override
+            public void set(PreparedStatement ps, int n) throws SQLException {
+                ps.setString(1, user(n / 6));
+                ps.setString(2, "app" + n % 3);
+                ps.setString(3, "scope" + n % 2);
+                ps.setTimestamp(4, new Timestamp(now + 3600000));
+                ps.setTimestamp(5, new Timestamp(now));
+            }
+        });
+        batch("insert into group_membership (group_id, member_id, member_type, authorities) "
+                        + "values (?, ?, 'USER', 'READ')", USERS * 3, new Row() {
+            @Override
+            public void set(PreparedStatement ps, int n) throws SQLException {
+                ps.setString(1, group((n / USERS + n % USERS) % GROUPS));
+                ps.setString(2, user(n % USERS));
+            }
+        });
+        batch("insert into expiring_code_store (code, expiresat, data) values (?, ?, '{}')", CODES, new Row() {
+            @Override
+            public void set(PreparedStatement ps, int n) throws SQLException {
+                ps.setString(1, "code" + n);
+                ps.setLong(2, now + 60000 + n);
+            }
+        });
+        batch("insert into sec_audit (principal_id, event_type, origin, event_data, created) values (?, 1, 'test', null, ?)",
+                        EVENTS, new Row() {
+            @Override
+            public void set(PreparedStatement ps, int n) throws SQLException {
+                ps.setString(1, user(n % USERS));
+                ps.setTimestamp(2, new Timestamp(now - 7200000 + n * 72L));
+            }
+        });
+    }
+
+    private void explain(String sql) {
+        System.out.println(sql);
+        for (Map<String, Object> row : jdbcTemplate.queryForList("EXPLAIN PLAN FOR " + sql)) {
+            for (Object value : row.values()) {
+                System.out.println("  " + value);
+            }
+        }
+    }
+
+    private void batch(String sql, final int rows, final Row row) {
+        for (int i = 0; i < rows; i += 10000) {
+            final int from = i;
+            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int n) throws SQLException {
+                    row.set(ps, from + n);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return Math.min(10000, rows - from);
+                }
+            });
+        }
+    }
+
+    private static String user(int n) {
+        return String.format("%08d-0000-0000-0000-000000000000", n);
+    }
+
+    private static String group(int n) {
+        return String.format("%08d-0000-0000-0000-00000000000g", n);
+    }
+
+    private interface Row {
+        void set(PreparedStatement ps, int n) throws SQLException;
+    }
+}
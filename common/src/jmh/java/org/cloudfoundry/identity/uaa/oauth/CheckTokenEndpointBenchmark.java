@@ -0,0 +1,113 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
+import org.cloudfoundry.identity.uaa.oauth.approval.InMemoryApprovalStore;
+import org.cloudfoundry.identity.uaa.oauth.token.SignerProvider;
+import org.cloudfoundry.identity.uaa.oauth.token.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.user.MockUaaUserDatabase;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.oauth2.provider.client.InMemoryClientDetailsService;
+
+/**
+ * Latency of a single <code>/check_token</code> call for a user token, using
+ * the former read / load / decode sequence (three signature checks and three
+ * claim parses) and the current single decode pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckTokenEndpointBenchmark {
+
+    private UaaTokenServices tokenServices = new UaaTokenServices();
+
+    private CheckTokenEndpoint endpoint = new CheckTokenEndpoint();
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    private String token;
+
+    @Setup
+    public void setup() throws Exception {
+        SignerProvider signerProvider = new SignerProvider();
+        signerProvider.setSigningKey("benchmark-key");
+        signerProvider.afterPropertiesSet();
+
+        Date tenSecondsAgo = new Date(System.currentTimeMillis() - 10000);
+        InMemoryClientDetailsService clientDetailsService = new InMemoryClientDetailsService();
+        Map<String, ? extends ClientDetails> clients = Collections.singletonMap("client",
+                        new BaseClientDetails("client", "scim", "read,write", "password", "uaa.none"));
+        clientDetailsService.setClientDetailsStore(clients);
+
+        tokenServices.setSignerProvider(signerProvider);
+        tokenServices.setIssuer("http://localhost:8080/uaa");
+        tokenServices.setClientDetailsService(clientDetailsService);
+        tokenServices.setApprovalStore(new InMemoryApprovalStore());
+        tokenServices.setUserDatabase(new MockUaaUserDatabase("12345", "olds", "olds@vmware.com", null, null,
+                        tenSecondsAgo, tenSecondsAgo));
+        tokenServices.afterPropertiesSet();
+        endpoint.setTokenServices(tokenServices);
+
+        AuthorizationRequest authorizationRequest = new AuthorizationRequest("client", Arrays.asList("read", "write"));
+        authorizationRequest.setResourceIds(new HashSet<>(Arrays.asList("scim")));
+        Map<String, String> parameters = new HashMap<>(authorizationRequest.getRequestParameters());
+        parameters.put("grant_type", "password");
+        authorizationRequest.setRequestParameters(parameters);
+        OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest.createOAuth2Request(),
+                        UaaAuthenticationTestFactory.getAuthentication("12345", "olds", "olds@vmware.com"));
+        token = tokenServices.createAccessToken(authentication).getValue();
+    }
+
+    @Benchmark
+    public Map<String, ?> decodePerCheck() throws Exception {
+        if (tokenServices.readAccessToken(token).isExpired()) {
+            throw new IllegalStateException();
+        }
+        tokenServices.loadAuthentication(token);
+        return mapper.readValue(JwtHelper.decode(token).getClaims(), new TypeReference<Map<String, Object>>() {
+        });
+    }
+
+    @Benchmark
+    public Map<String, ?> singleDecode() {
+        return endpoint.checkToken(token);
+    }
+}
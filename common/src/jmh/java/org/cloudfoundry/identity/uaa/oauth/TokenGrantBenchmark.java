@@ -0,0 +1,140 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
+import org.cloudfoundry.identity.uaa.oauth.approval.InMemoryApprovalStore;
+import org.cloudfoundry.identity.uaa.oauth.token.SignerProvider;
+import org.cloudfoundry.identity.uaa.oauth.token.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.user.MockUaaUserDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.oauth2.provider.client.ClientDetailsUserDetailsService;
+import org.springframework.security.oauth2.provider.client.JdbcClientDetailsService;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+
+import com.googlecode.flyway.core.Flyway;
+
+/**
+ * The client lookups made by the password and client_credentials grants
+ * (client authentication, the authorization request and the token services)
+ * against the JDBC client store, with and without the client details cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenGrantBenchmark {
+
+    @Param({ "false", "true" })
+    private boolean cached;
+
+    private XmlWebApplicationContext context;
+
+    private ClientDetailsUserDetailsService clientAuthentication;
+
+    private UaaAuthorizationRequestManager requestManager;
+
+    private UaaTokenServices tokenServices = new UaaTokenServices();
+
+    private Authentication user = UaaAuthenticationTestFactory.getAuthentication("12345", "olds", "olds@vmware.com");
+
+    private Map<String, String> passwordParameters = new HashMap<>();
+
+    private Map<String, String> clientCredentialsParameters = new HashMap<>();
+
+    @Setup
+    public void setup() throws Exception {
+        context = new XmlWebApplicationContext();
+        context.setConfigLocations(new String[] { "classpath:spring/env.xml", "classpath:spring/data-source.xml" });
+        context.refresh();
+
+        JdbcClientDetailsService jdbcClientDetailsService = new JdbcClientDetailsService(context.getBean(DataSource.class));
+        BaseClientDetails app = new BaseClientDetails("app", "scim,cloud_controller", "openid,scim.me,cloud_controller.read",
+                        "password,refresh_token", "uaa.none");
+        app.setAdditionalInformation(Collections.singletonMap("autoapprove", "true"));
+        jdbcClientDetailsService.addClientDetails(app);
+        jdbcClientDetailsService.addClientDetails(new BaseClientDetails("service", "scim", "uaa.none",
+                        "client_credentials", "scim.read,scim.write"));
+
+        CachingClientDetailsService clientDetailsService = new CachingClientDetailsService(jdbcClientDetailsService);
+        clientDetailsService.setEnabled(cached);
+        clientAuthentication = new ClientDetailsUserDetailsService(clientDetailsService);
+        requestManager = new UaaAuthorizationRequestManager(clientDetailsService);
+
+        SignerProvider signerProvider = new SignerProvider();
+        signerProvider.setSigningKey("benchmark-key");
+        signerProvider.afterPropertiesSet();
+        Date tenSecondsAgo = new Date(System.currentTimeMillis() - 10000);
+        tokenServices.setSignerProvider(signerProvider);
+        tokenServices.setIssuer("http://localhost:8080/uaa");
+        tokenServices.setClientDetailsService(clientDetailsService);
+        tokenServices.setApprovalStore(new InMemoryApprovalStore());
+        tokenServices.setUserDatabase(new MockUaaUserDatabase("12345", "olds", "olds@vmware.com", null, null,
+                        tenSecondsAgo, tenSecondsAgo));
+        tokenServices.afterPropertiesSet();
+
+        passwordParameters.put("client_id", "app");
+        passwordParameters.put("grant_type", "password");
+        passwordParameters.put("scope", "openid scim.me");
+        clientCredentialsParameters.put("client_id", "service");
+        clientCredentialsParameters.put("grant_type", "client_credentials");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.getBean(Flyway.class).clean();
+        context.destroy();
+    }
+
+    @Benchmark
+    public String passwordGrant() {
+        return grant(passwordParameters, user);
+    }
+
+    @Benchmark
+    public String clientCredentialsGrant() {
+        return grant(clientCredentialsParameters, null);
+    }
+
+    private String grant(Map<String, String> parameters, Authentication userAuthentication) {
+        clientAuthentication.loadUserByUsername(parameters.get("client_id"));
+        AuthorizationRequest request = requestManager.createAuthorizationRequest(parameters);
+        OAuth2Authentication authentication = new OAuth2Authentication(request.createOAuth2Request(), userAuthentication);
+        return tokenServices.createAccessToken(authentication).getValue();
+    }
+}
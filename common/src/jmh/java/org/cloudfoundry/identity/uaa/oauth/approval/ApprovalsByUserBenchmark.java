@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.approval;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultLimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.rest.jdbc.SimpleSearchQueryConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Loading the approvals of every user on a page of SCIM results, one query per
+ * user (as the user endpoints used to) and with a single IN list query per
+ * hundred users. The number of statements prepared for a page is printed
+ * when each trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApprovalsByUserBenchmark {
+
+    @Param({ "10", "100", "500" })
+    private int pageSize;
+
+    @Param({ "false", "true" })
+    private boolean bulk;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcApprovalStore store;
+
+    private List<String> userIds = new ArrayList<String>();
+
+    private final AtomicLong statements = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:approvals", "sa", "") {
+            @Override
+            public Connection getConnection() throws SQLException {
+                return countingStatements(super.getConnection());
+            }
+        };
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table authz_approvals (user_id varchar(36) not null, client_id varchar(36) not null, "
+                        + "scope varchar(255) not null, expiresat timestamp not null, status varchar(50) not null, "
+                        + "lastmodifiedat timestamp not null, primary key (user_id, client_id, scope))");
+        for (int i = 0; i < pageSize; i++) {
+            userIds.add(UUID.randomUUID().toString());
+        }
+        final Timestamp expiresAt = new Timestamp(System.currentTimeMillis() + 3600000);
+        jdbcTemplate.batchUpdate("insert into authz_approvals values (?, ?, ?, ?, 'APPROVED', ?)",
+                        new BatchPreparedStatementSetter() {
+                            @Override
+                            public void setValues(PreparedStatement ps, int n) throws SQLException {
+                                ps.setString(1, userIds.get(n / 3));
+                                ps.setString(2, "app");
+                                ps.setString(3, "scope" + n % 3);
+                                ps.setTimestamp(4, expiresAt);
+                                ps.setTimestamp(5, expiresAt);
+                            }
+
+                            @Override
+                            public int getBatchSize() {
+                                return 3 * userIds.size();
+                            }
+                        });
+        store = new JdbcApprovalStore(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate,
+                        new DefaultLimitSqlAdapter()), new SimpleSearchQueryConverter());
+        long before = statements.get();
+        page();
+        System.out.println("Statements per page: " + (statements.get() - before));
+    }
+
+    @TearDown
+    public void tearDown() {
+        jdbcTemplate.execute("shutdown");
+    }
+
+    @Benchmark
+    public int page() {
+        int count = 0;
+        if (bulk) {
+            for (List<Approval> approvals : store.getApprovalsByUser(userIds).values()) {
+                count += approvals.size();
+            }
+        }
+        else {
+            for (String userId : userIds) {
+                count += store.getApprovals(String.format("user_id eq \"%s\"", userId)).size();
+            }
+        }
+        return count;
+    }
+
+    private Connection countingStatements(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { Connection.class }, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args)
+                                            throws Throwable {
+                                if (method.getName().startsWith("prepare")) {
+                                    statements.incrementAndGet();
+                                }
+                                try {
+                                    return method.invoke(connection, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getTargetException();
+                                }
+                            }
+                        });
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.jwt.JwtHelper;
+
+/**
+ * Compares issuing an access token through <code>writeValueAsString</code>
+ * and {@link JwtHelper#encode(CharSequence, org.springframework.security.jwt.crypto.sign.Signer)}
+ * with the {@link JwtTokenWriter}. Run with <code>-prof gc</code> to see the
+ * allocation rate as well as the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtTokenWriterBenchmark {
+
+    @Param({"RSA", "MAC"})
+    private String keyType;
+
+    private SignerProvider signerProvider;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    private Map<String, Object> claims = new LinkedHashMap<String, Object>();
+
+    @Setup
+    public void setup() throws Exception {
+        signerProvider = new SignerProvider();
+        if ("RSA".equals(keyType)) {
+            signerProvider.setSigningKey(SignerProviderBenchmark.RSA_SIGNING_KEY);
+            signerProvider.setVerifierKey(SignerProviderBenchmark.RSA_VERIFIER_KEY);
+        } else {
+            signerProvider.setSigningKey(SignerProviderBenchmark.MAC_KEY);
+        }
+        signerProvider.afterPropertiesSet();
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("sub", "12345");
+        claims.put("scope", new LinkedHashSet<String>(Arrays.asList("openid", "scim.me", "cloud_controller.read",
+                        "cloud_controller.write", "password.write")));
+        claims.put("client_id", "cf");
+        claims.put("cid", "cf");
+        claims.put("azp", "cf");
+        claims.put("grant_type", "password");
+        claims.put("user_id", "12345");
+        claims.put("user_name", "marissa");
+        claims.put("email", "marissa@test.org");
+        claims.put("iat", System.currentTimeMillis() / 1000);
+        claims.put("exp", System.currentTimeMillis() / 1000 + 43200);
+        claims.put("iss", "http://localhost:8080/uaa/oauth/token");
+        claims.put("aud", new LinkedHashSet<String>(Arrays.asList("scim", "cloud_controller", "password", "openid")));
+    }
+
+    @Benchmark
+    public String jwtHelper() throws Exception {
+        return JwtHelper.encode(mapper.writeValueAsString(claims), signerProvider.getSigner()).getEncoded();
+    }
+
+    @Benchmark
+    public String tokenWriter() {
+        return signerProvider.getTokenWriter().write(claims);
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Reading every page of a large HSQLDB table through one list, by offset and
+ * by key with the last row of the previous page. Seeking needs an index on
+ * the sort column followed by the key to avoid sorting every row after it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcPagingListBenchmark {
+
+    private static final String SQL = "select id, username from paged where id is not null order by username asc";
+
+    private static final int PAGE = 100;
+
+    @Param({ "20000" })
+    private int rows;
+
+    @Param({ "false", "true" })
+    private boolean keyset;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private NamedParameterJdbcTemplate namedTemplate;
+
+    private LimitSqlAdapter limitSqlAdapter = new DefaultLimitSqlAdapter();
+
+    private Map<String, ?> args = Collections.emptyMap();
+
+    @Setup
+    public void setup() throws Exception {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:hsqldb:mem:paging", "sa", ""));
+        namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        jdbcTemplate.execute("create table paged (id varchar(36) primary key, username varchar(255) not null)");
+        jdbcTemplate.execute("create index paged_username on paged (username, id)");
+        for (int i = 0; i < rows; i += 10000) {
+            final int from = i;
+            jdbcTemplate.batchUpdate("insert into paged (id, username) values (?, ?)",
+                            new BatchPreparedStatementSetter() {
+                                @Override
+                                public void setValues(PreparedStatement ps, int n) throws SQLException {
+                                    ps.setString(1, UUID.randomUUID().toString());
+                                    ps.setString(2, String.format("user%08d", from + n));
+                                }
+
+                                @Override
+                                public int getBatchSize() {
+                                    return Math.min(10000, rows - from);
+                                }
+                            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        jdbcTemplate.execute("shutdown");
+    }
+
+    @Benchmark
+    public int allPages() {
+        int count = 0;
+        for (String id : newList()) {
+            count += id.length();
+        }
+        return count;
+    }
+
+    private List<String> newList() {
+        RowMapper<String> mapper = new RowMapper<String>() {
+            @Override
+            public String mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return rs.getString("id");
+            }
+        };
+        if (!keyset) {
+            return new JdbcPagingList<String>(namedTemplate, limitSqlAdapter, SQL, args, mapper, PAGE);
+        }
+        KeysetPaging paging = new KeysetPaging("id");
+        return new JdbcPagingList<String>(namedTemplate, limitSqlAdapter, SQL, args, mapper, PAGE, paging);
+    }
+}
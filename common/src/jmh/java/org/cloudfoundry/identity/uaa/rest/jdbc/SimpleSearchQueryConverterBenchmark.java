@@ -0,0 +1,67 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting the approval lookups sent by clients (the same filter with
+ * different user ids) to SQL, from scratch and from a cached plan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleSearchQueryConverterBenchmark {
+
+    @Param({ "false", "true" })
+    private boolean cached;
+
+    private SimpleSearchQueryConverter converter = new SimpleSearchQueryConverter();
+
+    private String[] filters = new String[1024];
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        if (!cached) {
+            converter.setMaxCachedPlans(0);
+        }
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = "user_id eq \"" + UUID.randomUUID() + "\" and client_id eq \"app\"";
+        }
+    }
+
+    @Benchmark
+    public ProcessedFilter convert() {
+        next = (next + 1) % filters.length;
+        return converter.convert(filters[next], null, true);
+    }
+}
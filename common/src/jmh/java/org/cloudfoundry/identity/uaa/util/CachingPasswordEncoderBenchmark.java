@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Throughput of cached password checks for a working set of clients that
+ * fits in the cache, on one thread and on every available core. With a
+ * shared digest the all-cores score stays close to the single thread one;
+ * it should now grow with the core count. Other thread counts can be tried
+ * with <code>-t</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingPasswordEncoderBenchmark {
+
+    private static final int PASSWORDS = 256;
+
+    private CachingPasswordEncoder encoder;
+
+    private String[] passwords = new String[PASSWORDS];
+
+    private String[] encoded = new String[PASSWORDS];
+
+    @Setup
+    public void setup() throws Exception {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(4);
+        encoder = new CachingPasswordEncoder();
+        encoder.setPasswordEncoder(bcrypt);
+        for (int i = 0; i < PASSWORDS; i++) {
+            passwords[i] = "secret-" + i;
+            encoded[i] = bcrypt.encode(passwords[i]);
+            encoder.matches(passwords[i], encoded[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean matchesOneThread() {
+        return matches();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean matchesAllCores() {
+        return matches();
+    }
+
+    private boolean matches() {
+        int i = ThreadLocalRandom.current().nextInt(PASSWORDS);
+        return encoder.matches(passwords[i], encoded[i]);
+    }
+}
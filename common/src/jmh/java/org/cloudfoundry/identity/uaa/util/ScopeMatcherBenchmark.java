@@ -0,0 +1,95 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checking the scopes requested by a client against its registered scopes, a
+ * mix of plain and <code>*.read</code> style wildcard scopes: with regular
+ * expressions compiled on every request, as before, with a matcher built on
+ * every request, and with the matcher kept for the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScopeMatcherBenchmark {
+
+    @Param({ "10", "50" })
+    private int clientScopes;
+
+    private Set<String> scopes = new LinkedHashSet<String>();
+
+    private String[] requested;
+
+    private ScopeMatcher matcher;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < clientScopes; i++) {
+            scopes.add(i % 2 == 0 ? "resource" + i + ".*" : "space.*.resource" + i);
+        }
+        scopes.add("openid");
+        requested = new String[] { "openid", "resource0.read", "space.1.resource1", "resource" + (clientScopes - 2)
+                        + ".write", "space.2.resource" + (clientScopes - 1) };
+        matcher = ScopeMatcher.of(scopes);
+    }
+
+    @Benchmark
+    public boolean regex() {
+        Set<Pattern> wildcards = UaaStringUtils.constructWildcards(scopes);
+        boolean valid = true;
+        for (String scope : requested) {
+            valid &= UaaStringUtils.matches(wildcards, scope);
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public boolean matcher() {
+        ScopeMatcher wildcards = ScopeMatcher.of(scopes);
+        boolean valid = true;
+        for (String scope : requested) {
+            valid &= wildcards.matches(scope);
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public boolean cachedMatcher() {
+        ScopeMatcher wildcards = matcher.isFor(scopes) ? matcher : ScopeMatcher.of(scopes);
+        boolean valid = true;
+        for (String scope : requested) {
+            valid &= wildcards.matches(scope);
+        }
+        return valid;
+    }
+}
@@ -114,6 +114,8 @@ public class UaaConfiguration {
             @NotNull(message = "'token:' requires 'signing-key'")
             public String signingKey;
             public String verificationKey;
+            public String keyId;
+            public Map<String, String> keys;
         }
     }
 
@@ -189,6 +191,9 @@ public class UaaConfiguration {
             TypeDescription oauthClientDesc = new TypeDescription(OAuthClient.class);
             oauthClientDesc.putListPropertyType("autoapprove", String.class);
             addTypeDescription(oauthClientDesc);
+            TypeDescription tokenDesc = new TypeDescription(Jwt.Token.class);
+            tokenDesc.putMapPropertyType("keys", String.class, String.class);
+            addTypeDescription(tokenDesc);
             addPropertyAlias("issuer.uri", UaaConfiguration.class, "issuerUri");
             // login.addnew is ignored - it is not needed anymore.
             addPropertyAlias("login.addnew", UaaConfiguration.class, "loginAddnew");
@@ -196,6 +201,7 @@ public class UaaConfiguration {
             addPropertyAlias("required-score", PasswordPolicy.class, "requiredScore");
             addPropertyAlias("signing-key", Jwt.Token.class, "signingKey");
             addPropertyAlias("verification-key", Jwt.Token.class, "verificationKey");
+            addPropertyAlias("key-id", Jwt.Token.class, "keyId");
             addPropertyAlias("authorized-grant-types", OAuthClient.class, "grantTypes");
             addPropertyAlias("redirect-uri", OAuthClient.class, "redirectUri");
             addPropertyAlias("access-token-validity", OAuthClient.class, "accessTokenValidity");
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.Assert;
+
+/**
+ * Audit service that queues events and writes them to a
+ * {@link JdbcAuditService} in batches on a background thread, so that the
+ * request raising an event does not wait for the database.
+ * <p>
+ * A batch is written once <code>flushSize</code> events are queued or
+ * <code>flushIntervalMillis</code> has passed. What happens when the queue
+ * is full is decided by the {@link OverflowPolicy}. Queries combine the
+ * queued events of the principal with the saved ones, without waiting for
+ * the queue to be written, and the queue is drained when the bean is
+ * destroyed.
+ */
+@ManagedResource
+public class AsyncAuditService implements UaaAuditService, InitializingBean, DisposableBean {
+
+    /**
+     * What to do with an event when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait for the writer to make room */
+        BLOCK,
+        /** Discard the event and count it */
+        DROP,
+        /** Write the queue and the event on the calling thread */
+        SYNCHRONOUS
+    }
+
+    private static final int MAX_FIND_ATTEMPTS = 10;
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final JdbcAuditService delegate;
+
+    private BlockingQueue<AuditEvent> queue;
+
+    private int capacity = 10000;
+
+    private int flushSize = 100;
+
+    private long flushIntervalMillis = 1000;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.SYNCHRONOUS;
+
+    private final Object flushLock = new Object();
+
+    private final Object signal = new Object();
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    /**
+     * Incremented before and after each batch is taken from the queue and
+     * written, so that it is odd while a batch is neither queued nor saved
+     */
+    private final AtomicLong writes = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    public AsyncAuditService(JdbcAuditService delegate) {
+        Assert.notNull(delegate, "delegate must not be null");
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param capacity the maximum number of events waiting to be written
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param flushSize the maximum number of events written in one batch
+     */
+    public void setFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+    }
+
+    /**
+     * @param flushIntervalMillis how long an event may wait before it is
+     *            written
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.state(capacity > 0, "capacity must be positive");
+        Assert.state(flushSize > 0, "flushSize must be positive");
+        Assert.state(flushIntervalMillis > 0, "flushIntervalMillis must be positive");
+        queue = new ArrayBlockingQueue<AuditEvent>(capacity);
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        synchronized (signal) {
+                            if (running && queue.size() < flushSize) {
+                                signal.wait(flushIntervalMillis);
+                            }
+                        }
+                        flush();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (RuntimeException e) {
+                        logger.error("Unexpected error in the audit writer", e);
+                    }
+                }
+            }
+        }, "uaa-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        writer.join(flushIntervalMillis * 2);
+        flush();
+    }
+
+    @Override
+    public void log(AuditEvent auditEvent) {
+        if (queue.offer(auditEvent)) {
+            if (queue.size() >= flushSize) {
+                synchronized (signal) {
+                    signal.notifyAll();
+                }
+            }
+            return;
+        }
+        overflows.incrementAndGet();
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(auditEvent);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    writeNow(auditEvent);
+                }
+                break;
+            case DROP:
+                dropped.incrementAndGet();
+                break;
+            default:
+                writeNow(auditEvent);
+                break;
+        }
+    }
+
+    /**
+     * @return the saved events of the principal since the given time together
+     *         with the queued ones, most recent first
+     */
+    @Override
+    public List<AuditEvent> find(String principal, long after) {
+        List<AuditEvent> result = null;
+        for (int attempt = 0; attempt < MAX_FIND_ATTEMPTS; attempt++) {
+            long before = writes.get();
+            if ((before & 1) == 0) {
+                result = delegate.find(principal, after, getQueued(principal, after));
+                if (writes.get() == before) {
+                    return result;
+                }
+            }
+            // a batch was being written, so its events may have been missed or
+            // counted twice
+            Thread.yield();
+        }
+        logger.debug("Audit events were written during every query for " + principal);
+        return result != null ? result : delegate.find(principal, after, getQueued(principal, after));
+    }
+
+    private List<AuditEvent> getQueued(String principal, long after) {
+        List<AuditEvent> result = new ArrayList<AuditEvent>();
+        if (queue == null) {
+            return result;
+        }
+        for (AuditEvent auditEvent : queue) {
+            if (principal.equals(auditEvent.getPrincipalId()) && auditEvent.getTime() > after) {
+                result.add(auditEvent);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes every queued event, in the order they were logged.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            boolean drained = false;
+            while (!drained) {
+                List<AuditEvent> batch = new ArrayList<AuditEvent>(flushSize);
+                writes.incrementAndGet();
+                try {
+                    drained = queue.drainTo(batch, flushSize) == 0;
+                    if (!drained) {
+                        write(batch);
+                    }
+                } finally {
+                    writes.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void writeNow(AuditEvent auditEvent) {
+        synchronized (flushLock) {
+            flush();
+            writes.incrementAndGet();
+            try {
+                write(Collections.singletonList(auditEvent));
+            } finally {
+                writes.incrementAndGet();
+            }
+        }
+    }
+
+    private void write(List<AuditEvent> batch) {
+        try {
+            delegate.log(batch);
+            written.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            logger.error("Could not save " + batch.size() + " audit events", e);
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Audit Events Queued")
+    public int getQueueSize() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Written")
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Dropped")
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Failed")
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Queue Overflows")
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+}
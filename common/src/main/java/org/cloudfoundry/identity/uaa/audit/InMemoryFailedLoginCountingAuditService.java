@@ -0,0 +1,247 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+/**
+ * An audit service that keeps just enough data in memory to answer queries
+ * about consecutive failed logins, so that checking an account that is
+ * already locked out does not query the database.
+ * <p>
+ * For each principal only the most recent <code>maxFailures</code> failures
+ * within <code>saveDataPeriodMillis</code> are remembered, and a successful
+ * login or password change forgets them. When a delegate is set every event
+ * is also passed on to it (for instance an {@link AsyncAuditService} writing
+ * to the database). While a principal has fewer than
+ * <code>maxFailures</code> failures its window is loaded from the delegate
+ * again when it is older than <code>refreshIntervalMillis</code> (15 seconds
+ * by default), so that failures recorded before a restart or by another
+ * server are taken into account. Until then failures and successful logins
+ * on other servers are not seen, so an account can take up to that long to
+ * be locked out (or unlocked) everywhere.
+ * <p>
+ * The service is disabled by default, in which case events are only passed
+ * on to the delegate and queries are answered by it.
+ */
+@ManagedResource
+public class InMemoryFailedLoginCountingAuditService implements UaaAuditService {
+
+    private final ExpiringLruCache<String, FailureWindow> windows;
+
+    private final int saveDataPeriodMillis;
+
+    private int maxFailures = 5;
+
+    private long refreshIntervalMillis = 15000;
+
+    private boolean enabled = false;
+
+    private UaaAuditService delegate;
+
+    public InMemoryFailedLoginCountingAuditService() {
+        this(100000, 2 * 3600 * 1000); // 2hr
+    }
+
+    /**
+     * @param maxPrincipals the maximum number of principals to remember
+     * @param saveDataPeriodMillis how long failures are remembered for
+     */
+    public InMemoryFailedLoginCountingAuditService(int maxPrincipals, int saveDataPeriodMillis) {
+        this.saveDataPeriodMillis = saveDataPeriodMillis;
+        this.windows = new ExpiringLruCache<String, FailureWindow>(maxPrincipals, saveDataPeriodMillis) {
+            @Override
+            protected long currentTimeMillis() {
+                return InMemoryFailedLoginCountingAuditService.this.currentTimeMillis();
+            }
+        };
+    }
+
+    /**
+     * @param maxFailures the number of recent failures to remember per
+     *            principal (no fewer than the number that locks an account)
+     */
+    public void setMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * @param refreshIntervalMillis how long the failures of a principal that
+     *            is not locked out are trusted before they are loaded from
+     *            the delegate again (default 15 seconds, 0 to load them on
+     *            every query)
+     */
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * @param delegate an audit service that every event is passed on to and
+     *            that the failures are loaded from. Its queries must include
+     *            every event already passed to it, as those of
+     *            {@link AsyncAuditService} do.
+     */
+    public void setDelegate(UaaAuditService delegate) {
+        this.delegate = delegate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            windows.clear();
+        }
+    }
+
+    @Override
+    public void log(AuditEvent auditEvent) {
+        if (!enabled) {
+            if (delegate != null) {
+                delegate.log(auditEvent);
+            }
+            return;
+        }
+        String principalId = auditEvent.getPrincipalId();
+        switch (auditEvent.getType()) {
+            case UserAuthenticationSuccess:
+            case PasswordChangeSuccess:
+                windows.put(principalId, new FailureWindow(maxFailures, currentTimeMillis()));
+                break;
+            case UserAuthenticationFailure:
+                FailureWindow window = getWindow(principalId);
+                window.add(auditEvent.getTime());
+                // storing it again keeps it for the whole period after this failure
+                windows.put(principalId, window);
+                break;
+            default:
+                break;
+        }
+        if (delegate != null) {
+            delegate.log(auditEvent);
+        }
+    }
+
+    /**
+     * @return the remembered failures for the principal since the given time,
+     *         most recent first
+     */
+    @Override
+    public List<AuditEvent> find(String principal, long after) {
+        if (!enabled) {
+            return delegate != null ? delegate.find(principal, after) : new ArrayList<AuditEvent>();
+        }
+        FailureWindow window = windows.get(principal);
+        if (window == null || isStale(window, after)) {
+            window = load(principal);
+            windows.put(principal, window);
+        }
+        return window.getFailures(principal, after);
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Principals With Login Data")
+    public int getPrincipalCount() {
+        return windows.size();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private FailureWindow getWindow(String principal) {
+        FailureWindow window = windows.get(principal);
+        if (window == null) {
+            window = load(principal);
+            FailureWindow existing = windows.putIfAbsent(principal, window);
+            window = existing != null ? existing : window;
+        }
+        return window;
+    }
+
+    /**
+     * @return true if another server may have seen failures (or a success)
+     *         that matter since the window was loaded
+     */
+    private boolean isStale(FailureWindow window, long after) {
+        return delegate != null && currentTimeMillis() - window.loadedAt >= refreshIntervalMillis
+                        && window.count(after) < maxFailures;
+    }
+
+    private FailureWindow load(String principal) {
+        long now = currentTimeMillis();
+        FailureWindow window = new FailureWindow(maxFailures, now);
+        if (delegate != null) {
+            List<AuditEvent> events = delegate.find(principal, now - saveDataPeriodMillis);
+            for (int i = events.size() - 1; i >= 0; i--) {
+                if (events.get(i).getType() == AuditEventType.UserAuthenticationFailure) {
+                    window.add(events.get(i).getTime());
+                }
+            }
+        }
+        return window;
+    }
+
+    /**
+     * The times of the most recent failures for one principal, in a ring.
+     */
+    private static class FailureWindow {
+
+        private final long[] times;
+
+        private final long loadedAt;
+
+        private int next;
+
+        private int count;
+
+        private FailureWindow(int size, long loadedAt) {
+            this.times = new long[size];
+            this.loadedAt = loadedAt;
+        }
+
+        private synchronized void add(long time) {
+            times[next] = time;
+            next = (next + 1) % times.length;
+            count = Math.min(count + 1, times.length);
+        }
+
+        private synchronized int count(long after) {
+            int result = 0;
+            for (int i = 0; i < count; i++) {
+                if (times[i] > after) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        private synchronized List<AuditEvent> getFailures(String principal, long after) {
+            List<AuditEvent> result = new ArrayList<AuditEvent>(count);
+            for (int i = 1; i <= count; i++) {
+                long time = times[(next - i + times.length) % times.length];
+                if (time > after) {
+                    result.add(new AuditEvent(AuditEventType.UserAuthenticationFailure, principal, null, null, time));
+                }
+            }
+            return result;
+        }
+    }
+}
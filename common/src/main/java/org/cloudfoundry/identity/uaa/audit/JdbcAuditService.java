@@ -12,13 +12,16 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.audit;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.sql.DataSource;
 
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -45,17 +48,61 @@ public class JdbcAuditService implements UaaAuditService {
                         new Timestamp(after));
     }
 
+    /**
+     * Same as {@link #find(String, long)}, taking into account events of the
+     * principal that have been logged but not saved yet.
+     *
+     * @param unsaved the events of the principal since the given time that
+     *            have not been saved, oldest first
+     * @return the events, most recent first
+     */
+    public List<AuditEvent> find(String principal, long after, List<AuditEvent> unsaved) {
+        List<AuditEvent> saved = find(principal, after);
+        List<AuditEvent> result = new ArrayList<AuditEvent>(unsaved.size() + saved.size());
+        for (int i = unsaved.size() - 1; i >= 0; i--) {
+            result.add(unsaved.get(i));
+        }
+        result.addAll(saved);
+        return result;
+    }
+
     @Override
     public void log(AuditEvent auditEvent) {
-        String origin = auditEvent.getOrigin();
-        String data = auditEvent.getData();
-        origin = origin == null ? "" : origin;
-        origin = origin.length() > 255 ? origin.substring(0, 255) : origin;
-        data = data == null ? "" : data;
-        data = data.length() > 255 ? data.substring(0, 255) : data;
         template.update("insert into sec_audit (principal_id, event_type, origin, event_data) values (?,?,?,?)",
-                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), auditEvent.getOrigin(),
-                        auditEvent.getData());
+                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), truncate(auditEvent.getOrigin()),
+                        truncate(auditEvent.getData()));
+    }
+
+    /**
+     * Saves several events with a single batch insert, keeping the time at
+     * which each event happened rather than the time it is written.
+     */
+    public void log(final List<AuditEvent> auditEvents) {
+        if (auditEvents.isEmpty()) {
+            return;
+        }
+        template.batchUpdate(
+                        "insert into sec_audit (principal_id, event_type, origin, event_data, created) values (?,?,?,?,?)",
+                        new BatchPreparedStatementSetter() {
+                            @Override
+                            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                                AuditEvent auditEvent = auditEvents.get(i);
+                                ps.setString(1, auditEvent.getPrincipalId());
+                                ps.setInt(2, auditEvent.getType().getCode());
+                                ps.setString(3, truncate(auditEvent.getOrigin()));
+                                ps.setString(4, truncate(auditEvent.getData()));
+                                ps.setTimestamp(5, new Timestamp(auditEvent.getTime()));
+                            }
+
+                            @Override
+                            public int getBatchSize() {
+                                return auditEvents.size();
+                            }
+                        });
+    }
+
+    private String truncate(String value) {
+        return value != null && value.length() > 255 ? value.substring(0, 255) : value;
     }
 
     private class AuditEventRowMapper implements RowMapper<AuditEvent> {
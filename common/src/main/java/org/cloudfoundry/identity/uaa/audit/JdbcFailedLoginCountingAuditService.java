@@ -13,6 +13,9 @@
 package org.cloudfoundry.identity.uaa.audit;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -27,6 +30,10 @@ public class JdbcFailedLoginCountingAuditService extends JdbcAuditService {
 
     private int saveDataPeriodMillis = 2 * 3600 * 1000; // 2hr
 
+    private long purgeIntervalMillis = 0;
+
+    private final AtomicLong lastPurge = new AtomicLong();
+
     public JdbcFailedLoginCountingAuditService(DataSource dataSource) {
         super(dataSource);
     }
@@ -38,6 +45,14 @@ public class JdbcFailedLoginCountingAuditService extends JdbcAuditService {
         this.saveDataPeriodMillis = saveDataPeriodMillis;
     }
 
+    /**
+     * @param purgeIntervalMillis the minimum time between deletes of expired
+     *            data (default 0, i.e. on every failure)
+     */
+    public void setPurgeIntervalMillis(long purgeIntervalMillis) {
+        this.purgeIntervalMillis = purgeIntervalMillis;
+    }
+
     @Override
     public void log(AuditEvent auditEvent) {
         switch (auditEvent.getType()) {
@@ -46,9 +61,7 @@ public class JdbcFailedLoginCountingAuditService extends JdbcAuditService {
                 getJdbcTemplate().update("delete from sec_audit where principal_id=?", auditEvent.getPrincipalId());
                 break;
             case UserAuthenticationFailure:
-                getJdbcTemplate().update("delete from sec_audit where created < ?",
-                                new Timestamp(System.currentTimeMillis()
-                                                - saveDataPeriodMillis));
+                purge();
                 super.log(auditEvent);
                 break;
             default:
@@ -56,4 +69,72 @@ public class JdbcFailedLoginCountingAuditService extends JdbcAuditService {
         }
     }
 
+    @Override
+    public void log(List<AuditEvent> auditEvents) {
+        boolean purged = false;
+        List<AuditEvent> failures = new ArrayList<AuditEvent>();
+        for (AuditEvent auditEvent : auditEvents) {
+            switch (auditEvent.getType()) {
+                case UserAuthenticationSuccess:
+                case PasswordChangeSuccess:
+                    // earlier failures in this batch must be saved before they are cleared
+                    super.log(failures);
+                    failures.clear();
+                    getJdbcTemplate().update("delete from sec_audit where principal_id=?", auditEvent.getPrincipalId());
+                    break;
+                case UserAuthenticationFailure:
+                    if (!purged) {
+                        purge();
+                        purged = true;
+                    }
+                    failures.add(auditEvent);
+                    break;
+                default:
+                    break;
+            }
+        }
+        super.log(failures);
+    }
+
+    /**
+     * Only the unsaved failures since the last unsaved success are added to
+     * the saved failures, and none of those if there is such a success.
+     */
+    @Override
+    public List<AuditEvent> find(String principal, long after, List<AuditEvent> unsaved) {
+        List<AuditEvent> failures = new ArrayList<AuditEvent>();
+        boolean cleared = false;
+        for (AuditEvent auditEvent : unsaved) {
+            switch (auditEvent.getType()) {
+                case UserAuthenticationSuccess:
+                case PasswordChangeSuccess:
+                    failures.clear();
+                    cleared = true;
+                    break;
+                case UserAuthenticationFailure:
+                    failures.add(auditEvent);
+                    break;
+                default:
+                    break;
+            }
+        }
+        List<AuditEvent> saved = cleared ? new ArrayList<AuditEvent>() : find(principal, after);
+        List<AuditEvent> result = new ArrayList<AuditEvent>(failures.size() + saved.size());
+        for (int i = failures.size() - 1; i >= 0; i--) {
+            result.add(failures.get(i));
+        }
+        result.addAll(saved);
+        return result;
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        long last = lastPurge.get();
+        if (now - last < purgeIntervalMillis || !lastPurge.compareAndSet(last, now)) {
+            return;
+        }
+        getJdbcTemplate().update("delete from sec_audit where created < ?",
+                        new Timestamp(now - saveDataPeriodMillis));
+    }
+
 }
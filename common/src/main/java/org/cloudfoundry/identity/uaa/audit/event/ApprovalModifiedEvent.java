@@ -17,12 +17,16 @@ import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.springframework.security.core.Authentication;
 
 import java.io.IOException;
 
 public class ApprovalModifiedEvent extends AbstractUaaEvent {
+
+    private static final ObjectWriter writer = dataWriter(ApprovalModifiedEventData.class,
+                    new ApprovalModifiedEventData(new Approval("", "", "", 0, Approval.ApprovalStatus.APPROVED)));
+
     private final Log logger = LogFactory.getLog(getClass());
 
     public ApprovalModifiedEvent(Object source, Authentication authentication) {
@@ -46,7 +50,7 @@ public class ApprovalModifiedEvent extends AbstractUaaEvent {
 
     private String getData(Approval source) {
         try {
-            return new ObjectMapper().writeValueAsString(new ApprovalModifiedEventData(source));
+            return writer.writeValueAsString(new ApprovalModifiedEventData(source));
         } catch (IOException e) {
             logger.error("error writing approval event data", e);
         }
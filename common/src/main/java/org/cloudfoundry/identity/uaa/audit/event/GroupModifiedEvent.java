@@ -20,7 +20,7 @@ import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -32,6 +32,8 @@ import java.util.Collection;
 
 public class GroupModifiedEvent extends AbstractUaaEvent {
 
+    private static final ObjectWriter writer = dataWriter(GroupInfo.class, new GroupInfo("", new String[0]));
+
     private String groupId;
     private String groupName;
     private String[] members;
@@ -76,7 +78,7 @@ public class GroupModifiedEvent extends AbstractUaaEvent {
     public AuditEvent getAuditEvent() {
         String data = null;
         try {
-            data = new ObjectMapper().writeValueAsString(new GroupInfo(groupName, members));
+            data = writer.writeValueAsString(new GroupInfo(groupName, members));
         } catch (IOException e) { }
         return createAuditRecord(
             groupId,
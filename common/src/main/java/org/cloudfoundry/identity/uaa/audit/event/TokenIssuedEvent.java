@@ -15,25 +15,41 @@ package org.cloudfoundry.identity.uaa.audit.event;
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.jwt.Jwt;
 import org.springframework.security.jwt.JwtHelper;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 
 import java.io.IOException;
-import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
+/**
+ * Published for every access token issued. The claims of the token should be
+ * given by the issuer, so that they do not have to be decoded from the token
+ * again; they are only decoded for events created without them.
+ */
 public class TokenIssuedEvent extends AbstractUaaEvent {
 
-    private ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectWriter writer = dataWriter(Collection.class, Collections.singleton(""));
+
+    private static final ObjectReader claimsReader = new ObjectMapper().reader(Map.class);
+
+    private Map<String, ?> claims;
 
     public TokenIssuedEvent(OAuth2AccessToken source, Authentication principal) {
+        this(source, principal, null);
+    }
+
+    public TokenIssuedEvent(OAuth2AccessToken source, Authentication principal, Map<String, ?> claims) {
         super(source, principal);
         if (!OAuth2AccessToken.class.isAssignableFrom(source.getClass())) {
             throw new IllegalArgumentException();
         }
+        this.claims = claims == null ? null : Collections.unmodifiableMap(claims);
     }
 
     @Override
@@ -41,21 +57,39 @@ public class TokenIssuedEvent extends AbstractUaaEvent {
         return (OAuth2AccessToken) super.getSource();
     }
 
+    /**
+     * @return the claims of the token, or null if they could not be decoded
+     */
+    public Map<String, ?> getClaims() {
+        if (claims == null) {
+            claims = decodeClaims();
+        }
+        return claims;
+    }
+
     @Override
     public AuditEvent getAuditEvent() {
         String data = null;
         try {
-            data = mapper.writeValueAsString(getSource().getScope());
+            data = writer.writeValueAsString(getSource().getScope());
         } catch (IOException e) { }
         return createAuditRecord(getPrincipalId(), AuditEventType.TokenIssuedEvent, getOrigin(getAuthentication()), data);
     }
 
     private String getPrincipalId() {
-        OAuth2AccessToken token = getSource();
-        Jwt jwt = JwtHelper.decode(token.getValue());
+        Map<String, ?> claims = getClaims();
+        if (claims == null) {
+            return null;
+        }
+        Object id = claims.get("user_id") != null ? claims.get("user_id") : claims.get("client_id");
+        return id == null ? null : id.toString();
+    }
+
+    private Map<String, ?> decodeClaims() {
+        Jwt jwt = JwtHelper.decode(getSource().getValue());
         try {
-            Map<String, Object> claims = mapper.readValue(jwt.getClaims(), new TypeReference<Map<String, Object>>() {});
-            return (claims.get("user_id") != null ? claims.get("user_id") : claims.get("client_id")).toString();
+            Map<String, Object> decoded = claimsReader.readValue(jwt.getClaims());
+            return Collections.unmodifiableMap(decoded);
         } catch (IOException e) {
             return null;
         }
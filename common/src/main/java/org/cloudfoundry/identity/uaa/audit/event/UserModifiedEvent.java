@@ -17,7 +17,7 @@ package org.cloudfoundry.identity.uaa.audit.event;
 
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -28,6 +28,8 @@ import java.util.Collection;
 
 public class UserModifiedEvent extends AbstractUaaEvent {
 
+    private static final ObjectWriter writer = dataWriter(String[].class, new String[] { "" });
+
     private String userId;
     private String username;
     private String email;
@@ -95,7 +97,7 @@ public class UserModifiedEvent extends AbstractUaaEvent {
         String[] details = {"user_id="+userId, "username="+username};
         String data = null;
         try {
-            data = new ObjectMapper().writeValueAsString(details);
+            data = writer.writeValueAsString(details);
         } catch (IOException e) { }
         return createAuditRecord(
             userId,
@@ -13,18 +13,123 @@
 package org.cloudfoundry.identity.uaa.codestore;
 
 import java.sql.Timestamp;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps codes in memory. Codes are also kept in a heap ordered by expiry, so
+ * that the ones that are never retrieved can be removed once they expire:
+ * every <code>reapIntervalMillis</code> on a background thread once the bean
+ * is initialized, and whenever the store is full.
+ * <p>
+ * At most <code>maxSize</code> codes are kept. What happens to a new code
+ * when that many unexpired codes are stored is decided by the
+ * {@link OverflowPolicy}.
+ */
+@ManagedResource
+public class InMemoryExpiringCodeStore implements ExpiringCodeStore, InitializingBean, DisposableBean {
+
+    /**
+     * What to do with a new code when the store is full.
+     */
+    public enum OverflowPolicy {
+        /** Refuse the new code */
+        REJECT,
+        /** Drop the code that expires first to make room */
+        EVICT_SOONEST_EXPIRING
+    }
 
-public class InMemoryExpiringCodeStore implements ExpiringCodeStore {
+    private final Log logger = LogFactory.getLog(getClass());
 
     private RandomValueStringGenerator generator = new RandomValueStringGenerator(6);
 
     private ConcurrentMap<String, ExpiringCode> store = new ConcurrentHashMap<String, ExpiringCode>();
 
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<Expiry>();
+
+    private int maxSize = 100000;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+
+    private long reapIntervalMillis = 60 * 1000;
+
+    private ScheduledExecutorService reaper;
+
+    private final AtomicLong reaped = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of codes kept
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param reapIntervalMillis how often expired codes are removed in the
+     *            background (0 to only remove them when the store is full)
+     */
+    public void setReapIntervalMillis(long reapIntervalMillis) {
+        this.reapIntervalMillis = reapIntervalMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.state(maxSize > 0, "maxSize must be positive");
+        if (reapIntervalMillis <= 0) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "uaa-expiring-code-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reap();
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error in the expiring code reaper", e);
+                }
+            }
+        }, reapIntervalMillis, reapIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
+    }
+
     @Override
     public ExpiringCode generateCode(String data, Timestamp expiresAt) {
         if (data == null || expiresAt == null) {
@@ -39,9 +144,22 @@ public class InMemoryExpiringCodeStore implements ExpiringCodeStore {
 
         ExpiringCode expiringCode = new ExpiringCode(code, expiresAt, data);
 
-        ExpiringCode duplicate = store.putIfAbsent(code, expiringCode);
-        if (duplicate != null) {
-            throw new DataIntegrityViolationException("Duplicate code: " + code);
+        synchronized (expiries) {
+            if (store.size() >= maxSize) {
+                makeRoom();
+            }
+            ExpiringCode duplicate = store.putIfAbsent(code, expiringCode);
+            if (duplicate != null) {
+                throw new DataIntegrityViolationException("Duplicate code: " + code);
+            }
+            expiries.add(new Expiry(expiringCode));
+            if (expiries.size() > 2 * maxSize) {
+                // most expiries are of codes that were retrieved
+                expiries.clear();
+                for (ExpiringCode stored : store.values()) {
+                    expiries.add(new Expiry(stored));
+                }
+            }
         }
 
         return expiringCode;
@@ -53,6 +171,7 @@ public class InMemoryExpiringCodeStore implements ExpiringCodeStore {
             throw new NullPointerException();
         }
 
+        // the expiry stays in the heap until it is reached, and is then ignored
         ExpiringCode expiringCode = store.remove(code);
 
         if (expiringCode == null || expiringCode.getExpiresAt().getTime() < System.currentTimeMillis()) {
@@ -66,4 +185,70 @@ public class InMemoryExpiringCodeStore implements ExpiringCodeStore {
     public void setGenerator(RandomValueStringGenerator generator) {
         this.generator = generator;
     }
+
+    /**
+     * Removes the codes that have expired.
+     *
+     * @return the number of codes removed
+     */
+    public int reap() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        synchronized (expiries) {
+            while (!expiries.isEmpty() && expiries.peek().expiresAt < now) {
+                Expiry expiry = expiries.poll();
+                if (store.remove(expiry.code.getCode(), expiry.code)) {
+                    count++;
+                }
+            }
+        }
+        reaped.addAndGet(count);
+        return count;
+    }
+
+    private void makeRoom() {
+        if (reap() > 0) {
+            return;
+        }
+        overflows.incrementAndGet();
+        if (overflowPolicy == OverflowPolicy.REJECT) {
+            throw new DataAccessResourceFailureException("Too many codes: " + store.size());
+        }
+        while (store.size() >= maxSize && !expiries.isEmpty()) {
+            Expiry expiry = expiries.poll();
+            store.remove(expiry.code.getCode(), expiry.code);
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Expiring Codes")
+    public int getSize() {
+        return store.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expiring Codes Reaped")
+    public long getReapedCount() {
+        return reaped.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expiring Code Store Overflows")
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    private static class Expiry implements Comparable<Expiry> {
+
+        private final ExpiringCode code;
+
+        private final long expiresAt;
+
+        Expiry(ExpiringCode code) {
+            this.code = code;
+            this.expiresAt = code.getExpiresAt().getTime();
+        }
+
+        @Override
+        public int compareTo(Expiry other) {
+            return expiresAt < other.expiresAt ? -1 : expiresAt == other.expiresAt ? 0 : 1;
+        }
+    }
 }
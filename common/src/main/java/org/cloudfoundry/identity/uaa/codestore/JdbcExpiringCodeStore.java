@@ -15,19 +15,45 @@ package org.cloudfoundry.identity.uaa.codestore;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultLimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.rest.jdbc.LimitSqlAdapter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
-public class JdbcExpiringCodeStore implements ExpiringCodeStore {
+/**
+ * Stores codes in a table. A code can be retrieved once: the row is deleted
+ * as it is read, and only the caller whose delete removed it gets the code.
+ * <p>
+ * Expired codes that are never retrieved are deleted in batches of at most
+ * <code>sweepBatchSize</code> rows every <code>expirationInterval</code>
+ * milliseconds, on a background thread once the bean is initialized and
+ * otherwise on the thread retrieving a code.
+ */
+@ManagedResource
+public class JdbcExpiringCodeStore implements ExpiringCodeStore, InitializingBean, DisposableBean {
 
     public static final String tableName = "expiring_code_store";
     public static final String fields = "code, expiresat, data";
@@ -36,6 +62,7 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
     public static final String delete = "delete from " + tableName + " where code = ?";
     public static final String deleteExpired = "delete from " + tableName + " where expiresat < ?";
     public static final String select = "select " + fields + " from " + tableName + " where code = ?";
+    public static final String selectExpired = "select code from " + tableName + " where expiresat < ? order by expiresat";
 
     private Log logger = LogFactory.getLog(getClass());
 
@@ -43,9 +70,25 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
 
     private JdbcTemplate jdbcTemplate;
 
+    private LimitSqlAdapter limitSqlAdapter = new DefaultLimitSqlAdapter();
+
     private AtomicLong lastExpired = new AtomicLong();
     private long expirationInterval = 60 * 1000; // once a minute
 
+    private int sweepBatchSize = 1000;
+
+    private boolean sweepInBackground = true;
+
+    private ScheduledExecutorService sweeper;
+
+    private final AtomicLong sweeps = new AtomicLong();
+
+    private final AtomicLong sweptCodes = new AtomicLong();
+
+    private final AtomicLong sweepFailures = new AtomicLong();
+
+    private volatile long lastSweepMillis;
+
     public long getExpirationInterval() {
         return expirationInterval;
     }
@@ -54,6 +97,26 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
         this.expirationInterval = expirationInterval;
     }
 
+    /**
+     * @param sweepBatchSize the maximum number of expired codes deleted by one
+     *            statement
+     */
+    public void setSweepBatchSize(int sweepBatchSize) {
+        this.sweepBatchSize = sweepBatchSize;
+    }
+
+    /**
+     * @param sweepInBackground false to delete expired codes on the threads
+     *            retrieving codes even after the bean is initialized
+     */
+    public void setSweepInBackground(boolean sweepInBackground) {
+        this.sweepInBackground = sweepInBackground;
+    }
+
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.limitSqlAdapter = limitSqlAdapter;
+    }
+
     protected JdbcExpiringCodeStore() {
         // package protected for unit tests only
     }
@@ -66,6 +129,40 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
         jdbcTemplate = new JdbcTemplate(dataSource);
     }
 
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.state(sweepBatchSize > 0, "sweepBatchSize must be positive");
+        if (!sweepInBackground || expirationInterval <= 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "uaa-expiring-code-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error in the expiring code sweeper", e);
+                }
+            }
+        }, expirationInterval, expirationInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
     @Override
     public ExpiringCode generateCode(String data, Timestamp expiresAt) {
         if (data == null || expiresAt == null) {
@@ -100,27 +197,28 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
 
     @Override
     public ExpiringCode retrieveCode(String code) {
-        cleanExpiredEntries();
+        if (sweeper == null) {
+            cleanExpiredEntries();
+        }
 
         if (code == null) {
             throw new NullPointerException();
         }
 
+        ExpiringCode expiringCode;
         try {
-            ExpiringCode expiringCode = jdbcTemplate.queryForObject(select, new JdbcExpiringCodeMapper(), code);
-            try {
-                if (expiringCode != null) {
-                    jdbcTemplate.update(delete, code);
-                }
-                if (expiringCode.getExpiresAt().getTime() < System.currentTimeMillis()) {
-                    expiringCode = null;
-                }
-            } finally {
-                return expiringCode;
-            }
+            expiringCode = jdbcTemplate.queryForObject(select, new JdbcExpiringCodeMapper(), code);
         } catch (EmptyResultDataAccessException x) {
             return null;
         }
+        // another request may have consumed the code since it was read
+        if (jdbcTemplate.update(delete, code) != 1) {
+            return null;
+        }
+        if (expiringCode.getExpiresAt().getTime() < System.currentTimeMillis()) {
+            return null;
+        }
+        return expiringCode;
     }
 
     @Override
@@ -128,19 +226,82 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
         this.generator = generator;
     }
 
+    /**
+     * Deletes the expired codes if that has not been done in the last
+     * <code>expirationInterval</code> milliseconds.
+     *
+     * @return the number of codes deleted
+     */
     public int cleanExpiredEntries() {
         long now = System.currentTimeMillis();
         long lastCheck = lastExpired.get();
 
         if ((now - lastCheck) > expirationInterval && lastExpired.compareAndSet(lastCheck, now)) {
-            int count = jdbcTemplate.update(deleteExpired, now);
-            logger.debug("Expiring code sweeper complete, deleted " + count + " entries.");
-            return count;
+            return sweep();
         }
 
         return 0;
     }
 
+    /**
+     * Deletes the codes that have expired, in batches of at most
+     * <code>sweepBatchSize</code>.
+     *
+     * @return the number of codes deleted
+     */
+    public int sweep() {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try {
+            List<String> codes;
+            do {
+                codes = jdbcTemplate.queryForList(limitSqlAdapter.getLimitSql(selectExpired, 0, sweepBatchSize),
+                                String.class, start);
+                if (!codes.isEmpty()) {
+                    List<Object> args = new ArrayList<Object>(codes.size() + 1);
+                    args.add(start);
+                    args.addAll(codes);
+                    int deleted = jdbcTemplate.update(deleteExpired + " and code in ("
+                                    + StringUtils.collectionToCommaDelimitedString(Collections.nCopies(codes.size(), "?"))
+                                    + ")", args.toArray());
+                    if (deleted == 0) {
+                        break;
+                    }
+                    count += deleted;
+                }
+            } while (codes.size() == sweepBatchSize);
+        } catch (RuntimeException e) {
+            sweepFailures.incrementAndGet();
+            throw e;
+        } finally {
+            sweeps.incrementAndGet();
+            sweptCodes.addAndGet(count);
+            lastSweepMillis = System.currentTimeMillis() - start;
+        }
+        logger.debug("Expiring code sweeper complete, deleted " + count + " entries.");
+        return count;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expiring Code Sweeps")
+    public long getSweepCount() {
+        return sweeps.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Codes Deleted")
+    public long getSweptCodeCount() {
+        return sweptCodes.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expiring Code Sweep Failures")
+    public long getSweepFailureCount() {
+        return sweepFailures.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Last Expiring Code Sweep Millis")
+    public long getLastSweepMillis() {
+        return lastSweepMillis;
+    }
+
     protected static class JdbcExpiringCodeMapper implements RowMapper<ExpiringCode> {
 
         @Override
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.db;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Leases held in the <code>task_lock</code> table, so that a background task
+ * scheduled on every node of a cluster runs on only one of them at a time.
+ * <p>
+ * A lease is held by the holder that acquired it until it expires or is
+ * released, and the holder renews it by acquiring it again. Once a lease has
+ * expired, for instance because its holder stopped, any other holder can
+ * acquire it. Expiry is checked against the clock of the node acquiring the
+ * lease, so leases should be much longer than the clock skew between nodes.
+ */
+public class JdbcTaskLock {
+
+    private static final String UPDATE_LOCK_SQL = "update task_lock set holder=?, expires_at=? "
+                    + "where name=? and (holder=? or expires_at<?)";
+
+    private static final String INSERT_LOCK_SQL = "insert into task_lock (name, holder, expires_at) values (?,?,?)";
+
+    private static final String RELEASE_LOCK_SQL = "update task_lock set expires_at=0 where name=? and holder=?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private String holder = defaultHolder();
+
+    public JdbcTaskLock(DataSource dataSource) {
+        this(new JdbcTemplate(dataSource));
+    }
+
+    public JdbcTaskLock(JdbcTemplate jdbcTemplate) {
+        Assert.notNull(jdbcTemplate);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    /**
+     * @param holder the name this node holds leases under, by default the host
+     *            name followed by a random id
+     */
+    public void setHolder(String holder) {
+        Assert.hasText(holder, "holder must not be empty");
+        this.holder = holder;
+    }
+
+    /**
+     * Acquires or renews the named lease.
+     *
+     * @return true if the lease is now held by this holder for the next
+     *         <code>leaseMillis</code> milliseconds
+     */
+    public boolean tryAcquire(String name, long leaseMillis) {
+        long now = System.currentTimeMillis();
+        if (jdbcTemplate.update(UPDATE_LOCK_SQL, holder, now + leaseMillis, name, holder, now) == 1) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(INSERT_LOCK_SQL, name, holder, now + leaseMillis) == 1;
+        } catch (DataIntegrityViolationException e) {
+            // another holder has the lease
+            return false;
+        }
+    }
+
+    /**
+     * Gives up the named lease if it is held by this holder, so that another
+     * holder can acquire it straight away.
+     */
+    public void release(String name) {
+        jdbcTemplate.update(RELEASE_LOCK_SQL, name, holder);
+    }
+
+    private static String defaultHolder() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + ":" + UUID.randomUUID();
+    }
+}
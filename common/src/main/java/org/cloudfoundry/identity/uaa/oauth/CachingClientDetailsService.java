@@ -0,0 +1,112 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
+import org.springframework.util.Assert;
+
+/**
+ * Read-through cache in front of another {@link ClientDetailsService}, so
+ * that the several client lookups made while issuing or checking a token do
+ * not each go to the database.
+ * <p>
+ * Clients are kept for at most <code>timeToLiveSeconds</code>. Unknown
+ * clients are not cached. Changes made through {@link ClientAdminEndpoints}
+ * evict the affected clients straight away; changes made directly in the
+ * database are picked up once the entry expires. The cached instances are
+ * shared, so callers must not modify them. The cache is disabled by default.
+ */
+@ManagedResource
+public class CachingClientDetailsService implements ClientDetailsService {
+
+    private final ClientDetailsService delegate;
+
+    private final ExpiringLruCache<String, ClientDetails> cache;
+
+    private boolean enabled = false;
+
+    public CachingClientDetailsService(ClientDetailsService delegate) {
+        this(delegate, 1000, 60);
+    }
+
+    public CachingClientDetailsService(ClientDetailsService delegate, int maxEntries, int timeToLiveSeconds) {
+        Assert.notNull(delegate, "delegate must not be null");
+        this.delegate = delegate;
+        this.cache = new ExpiringLruCache<String, ClientDetails>(maxEntries, timeToLiveSeconds * 1000L);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public ClientDetails loadClientByClientId(String clientId) throws ClientRegistrationException {
+        if (!enabled || clientId == null) {
+            return delegate.loadClientByClientId(clientId);
+        }
+        ClientDetails client = cache.get(clientId);
+        if (client == null) {
+            client = delegate.loadClientByClientId(clientId);
+            if (client != null) {
+                cache.put(clientId, client);
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Forgets a client so that the next lookup goes to the delegate.
+     */
+    public void evict(String clientId) {
+        if (clientId != null) {
+            cache.remove(clientId);
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Client Details Cache Hits")
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Client Details Cache Misses")
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Client Details Cache Evictions")
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Client Details Cache Size")
+    public int getSize() {
+        return cache.size();
+    }
+}
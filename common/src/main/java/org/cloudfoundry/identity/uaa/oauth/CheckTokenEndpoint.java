@@ -16,6 +16,8 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.oauth.token.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.oauth.token.VerifiedToken;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 import org.springframework.beans.factory.InitializingBean;
@@ -64,6 +66,10 @@ public class CheckTokenEndpoint implements InitializingBean {
     @ResponseBody
     public Map<String, ?> checkToken(@RequestParam("token") String value) {
 
+        if (resourceServerTokenServices instanceof UaaTokenServices) {
+            return checkToken((UaaTokenServices) resourceServerTokenServices, value);
+        }
+
         OAuth2AccessToken token = resourceServerTokenServices.readAccessToken(value);
         if (token == null) {
             throw new InvalidTokenException("Token was not recognised");
@@ -85,6 +91,31 @@ public class CheckTokenEndpoint implements InitializingBean {
         return response;
     }
 
+    /**
+     * Decodes and verifies the token once and runs all the checks against the
+     * same claims, which are then returned as the response.
+     */
+    private Map<String, ?> checkToken(UaaTokenServices tokenServices, String value) {
+        VerifiedToken verifiedToken = tokenServices.verifyToken(value);
+
+        OAuth2AccessToken token = tokenServices.readAccessToken(verifiedToken);
+        if (token == null) {
+            throw new InvalidTokenException("Token was not recognised");
+        }
+
+        if (token.isExpired()) {
+            throw new InvalidTokenException("Token has expired");
+        }
+
+        try {
+            tokenServices.loadAuthentication(verifiedToken);
+        } catch (AuthenticationException x) {
+            throw new InvalidTokenException((x.getMessage()));
+        }
+
+        return verifiedToken.getClaims();
+    }
+
     private Map<String, Object> getClaimsForToken(String token) {
         Jwt tokenJwt = null;
         try {
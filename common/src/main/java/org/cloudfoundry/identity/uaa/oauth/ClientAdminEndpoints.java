@@ -63,6 +63,8 @@ import org.springframework.security.oauth2.provider.ClientRegistrationService;
 import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -102,6 +104,8 @@ public class ClientAdminEndpoints implements InitializingBean {
 
     private QueryableResourceManager<ClientDetails> clientDetailsService;
 
+    private CachingClientDetailsService clientDetailsCache;
+
     private AttributeNameMapper attributeNameMapper = new SimpleAttributeNameMapper(
                     Collections.<String, String> emptyMap());
 
@@ -155,6 +159,14 @@ public class ClientAdminEndpoints implements InitializingBean {
         this.clientDetailsService = clientDetailsService;
     }
 
+    /**
+     * @param clientDetailsCache a cache to evict clients from when they are
+     *            changed or removed
+     */
+    public void setClientDetailsCache(CachingClientDetailsService clientDetailsCache) {
+        this.clientDetailsCache = clientDetailsCache;
+    }
+
     public void setSecurityContextAccessor(SecurityContextAccessor securityContextAccessor) {
         this.securityContextAccessor = securityContextAccessor;
     }
@@ -210,6 +222,7 @@ public class ClientAdminEndpoints implements InitializingBean {
     public ClientDetails createClientDetails(@RequestBody BaseClientDetails client) throws Exception {
         ClientDetails details = validateClient(client, true);
         clientRegistrationService.addClientDetails(details);
+        evictFromCache(details.getClientId());
         return removeSecret(client);
     }
 
@@ -231,6 +244,7 @@ public class ClientAdminEndpoints implements InitializingBean {
     protected ClientDetails[] doInsertClientDetails(ClientDetails[] details) {
         for (int i=0; i<details.length; i++) {
             clientRegistrationService.addClientDetails(details[i]);
+            evictFromCache(details[i].getClientId());
             details[i] = removeSecret(details[i]);
         }
         return details;
@@ -262,6 +276,7 @@ public class ClientAdminEndpoints implements InitializingBean {
         ClientDetails[] result = new ClientDetails[details.length];
         for (int i=0; i<result.length; i++) {
             clientRegistrationService.updateClientDetails(details[i]);
+            evictFromCache(details[i].getClientId());
             clientUpdates.incrementAndGet();
             result[i] = removeSecret(details[i]);
         }
@@ -292,6 +307,7 @@ public class ClientAdminEndpoints implements InitializingBean {
         }
         details = validateClient(details, false);
         clientRegistrationService.updateClientDetails(details);
+        evictFromCache(clientId);
         clientUpdates.incrementAndGet();
         return removeSecret(client);
     }
@@ -327,6 +343,7 @@ public class ClientAdminEndpoints implements InitializingBean {
             if (ClientDetailsModification.ADD.equals(details[i].getAction())) {
                 ClientDetails client = validateClient(details[i], true);
                 clientRegistrationService.addClientDetails(client);
+                evictFromCache(client.getClientId());
                 clientUpdates.incrementAndGet();
                 result[i] = new ClientDetailsModification(clientDetailsService.retrieve(details[i].getClientId()));
             } else if (ClientDetailsModification.DELETE.equals(details[i].getAction())) {
@@ -356,6 +373,7 @@ public class ClientAdminEndpoints implements InitializingBean {
         ClientDetailsModification result = new ClientDetailsModification(clientDetailsService.retrieve(c.getClientId()));
         ClientDetails client = validateClient(c, false);
         clientRegistrationService.updateClientDetails(client);
+        evictFromCache(client.getClientId());
         clientUpdates.incrementAndGet();
         return result;
     }
@@ -364,6 +382,7 @@ public class ClientAdminEndpoints implements InitializingBean {
         boolean deleteApprovals = !(authenticateClient(detail.getClientId(), detail.getClientSecret()));
         if (deleteApprovals) {
             clientRegistrationService.updateClientSecret(detail.getClientId(), detail.getClientSecret());
+            evictFromCache(detail.getClientId());
             deleteApprovals(detail.getClientId());
             detail.setApprovalsDeleted(true);
         }
@@ -385,6 +404,7 @@ public class ClientAdminEndpoints implements InitializingBean {
                 clientDetails[i] = new ClientDetailsModification(clientDetailsService.retrieve(clientId));
                 boolean oldPasswordOk = authenticateClient(clientId, change[i].getOldSecret());
                 clientRegistrationService.updateClientSecret(clientId, change[i].getSecret());
+                evictFromCache(clientId);
                 if (!oldPasswordOk) {
                     deleteApprovals(clientId);
                     clientDetails[i].setApprovalsDeleted(true);
@@ -404,6 +424,7 @@ public class ClientAdminEndpoints implements InitializingBean {
         for (int i=0; i<details.length; i++) {
             String clientId = details[i].getClientId();
             clientRegistrationService.removeClientDetails(clientId);
+            evictFromCache(clientId);
             deleteApprovals(clientId);
             clientDeletes.incrementAndGet();
             result[i] = removeSecret(details[i]);
@@ -412,6 +433,26 @@ public class ClientAdminEndpoints implements InitializingBean {
         return result;
     }
 
+    /**
+     * Evicts a client from the cache now and, if a transaction is in
+     * progress, again once it completes, so that a concurrent lookup cannot
+     * re-cache the client as it was before the transaction.
+     */
+    protected void evictFromCache(final String clientId) {
+        if (clientDetailsCache == null) {
+            return;
+        }
+        clientDetailsCache.evict(clientId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    clientDetailsCache.evict(clientId);
+                }
+            });
+        }
+    }
+
     protected void deleteApprovals(String clientId) {
         if (approvalStore!=null) {
             approvalStore.revokeApprovals(String.format("client_id eq \"%s\"", clientId));
@@ -479,6 +520,7 @@ public class ClientAdminEndpoints implements InitializingBean {
         }
 
         clientRegistrationService.updateClientSecret(client, change.getSecret());
+        evictFromCache(client);
 
         clientSecretChanges.incrementAndGet();
 
@@ -17,22 +17,46 @@ import java.io.UnsupportedEncodingException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.cloudfoundry.identity.uaa.oauth.token.VerificationKey;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.AuthorizationRequest;
@@ -51,16 +75,34 @@ import org.springframework.web.client.RestTemplate;
  * 
  * If the endpoint returns a 400 response, this indicates that the token is
  * invalid.
+ * <p>
+ * When a <code>tokenKeyEndpointUrl</code> is set, JWT access tokens are
+ * verified locally instead: the keys are fetched from /token_key (or
+ * /token_keys) and refreshed every <code>keyRefreshInterval</code>
+ * milliseconds, or sooner when a token names a key id that is not known yet.
+ * The signature, the expiry (which the tokens must have) and, if they are
+ * set, the issuer and the audience are checked without a call to the server. If <code>checkRevocation</code>
+ * is set, each token is also sent to /check_token in the background at most
+ * once every <code>revocationCheckInterval</code> milliseconds, and is
+ * rejected from then on if the server no longer accepts it.
+ * <p>
+ * Otherwise the responses of /check_token can be cached: an accepted token
+ * for <code>cacheTimeToLive</code> milliseconds or until it expires,
+ * whichever comes first, and a rejected one for
+ * <code>negativeCacheTimeToLive</code> milliseconds. Both are 0 (no caching)
+ * by default, so that a revoked token is rejected straight away. Concurrent
+ * checks of the same token share a single request. The default
+ * {@link RestTemplate} keeps a pool of connections to the server.
  * 
  * @author Dave Syer
  * @author Luke Taylor
  * 
  */
-public class RemoteTokenServices implements ResourceServerTokenServices {
+public class RemoteTokenServices implements ResourceServerTokenServices, InitializingBean, DisposableBean {
 
     protected final Log logger = LogFactory.getLog(getClass());
 
-    private RestOperations restTemplate;
+    private volatile RestOperations restTemplate;
 
     private String checkTokenEndpointUrl;
 
@@ -70,19 +112,64 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 
     private ObjectMapper mapper = new ObjectMapper();
 
-    public RemoteTokenServices() {
-        restTemplate = new RestTemplate();
-        ((RestTemplate) restTemplate).setErrorHandler(new DefaultResponseErrorHandler() {
-            @Override
-            // Ignore 400
-            public void handleError(ClientHttpResponse response) throws IOException {
-                if (response.getRawStatusCode() != 400) {
-                    super.handleError(response);
-                }
-            }
-        });
-    }
+    private String tokenKeyEndpointUrl;
+
+    private String issuer;
+
+    private String resourceId;
+
+    private long keyRefreshInterval = 10 * 60 * 1000;
+
+    private long minKeyRefreshInterval = 30 * 1000;
+
+    private boolean checkRevocation = false;
+
+    private long revocationCheckInterval = 60 * 1000;
+
+    private volatile Map<String, VerificationKey> keys;
+
+    private volatile long keysFetchedAt;
+
+    private final Object keysLock = new Object();
+
+    private ExpiringLruCache<String, Boolean> checkedTokens;
+
+    private final ExpiringLruCache<String, Boolean> revokedTokens = new ExpiringLruCache<String, Boolean>(10000,
+                    24 * 60 * 60 * 1000);
+
+    private ScheduledExecutorService keyRefresher;
+
+    private ThreadPoolExecutor revocationChecker;
+
+    private volatile String authorizationHeader;
+
+    private long cacheTimeToLive = 0;
 
+    private long negativeCacheTimeToLive = 0;
+
+    private int cacheMaxEntries = 10000;
+
+    private ExpiringLruCache<String, Map<String, Object>> checkTokenCache;
+
+    private final ConcurrentMap<String, FutureTask<Map<String, Object>>> checksInFlight = new ConcurrentHashMap<String, FutureTask<Map<String, Object>>>();
+
+    private int maxConnections = 20;
+
+    private int connectTimeout = 0;
+
+    private int readTimeout = 0;
+
+    private boolean clientConfigured = false;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private final Object clientLock = new Object();
+
+    /**
+     * @param restTemplate the template to call the server with, instead of
+     *            the default one, which is created with a pool of
+     *            connections when it is first needed
+     */
     public void setRestTemplate(RestOperations restTemplate) {
         this.restTemplate = restTemplate;
     }
@@ -93,25 +180,225 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 
     public void setClientId(String clientId) {
         this.clientId = clientId;
+        this.authorizationHeader = null;
     }
 
     public void setClientSecret(String clientSecret) {
         this.clientSecret = clientSecret;
+        this.authorizationHeader = null;
+    }
+
+    /**
+     * @param maxConnections the most connections the default
+     *            {@link RestTemplate} keeps open to the server (default 20)
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        this.clientConfigured = true;
+    }
+
+    /**
+     * @param connectTimeout the connect timeout of the default
+     *            {@link RestTemplate}, in milliseconds, or 0 for none
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.clientConfigured = true;
+    }
+
+    /**
+     * @param readTimeout the read timeout of the default {@link RestTemplate},
+     *            in milliseconds, or 0 for none
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        this.clientConfigured = true;
+    }
+
+    /**
+     * @param cacheTimeToLive the longest time an accepted token is cached
+     *            for, in milliseconds, or 0 to ask the server every time
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    /**
+     * @param negativeCacheTimeToLive how long a token rejected by the server
+     *            is cached for, in milliseconds, or 0 to ask the server every
+     *            time
+     */
+    public void setNegativeCacheTimeToLive(long negativeCacheTimeToLive) {
+        this.negativeCacheTimeToLive = negativeCacheTimeToLive;
+    }
+
+    /**
+     * @param cacheMaxEntries the most /check_token responses kept
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    /**
+     * @param tokenKeyEndpointUrl the /token_key or /token_keys endpoint to
+     *            fetch the keys from, to verify tokens locally
+     */
+    public void setTokenKeyEndpointUrl(String tokenKeyEndpointUrl) {
+        this.tokenKeyEndpointUrl = tokenKeyEndpointUrl;
+    }
+
+    /**
+     * @param issuer the <code>iss</code> claim locally verified tokens must
+     *            have, e.g. http://localhost:8080/uaa/oauth/token
+     */
+    public void setIssuer(String issuer) {
+        this.issuer = issuer;
+    }
+
+    /**
+     * @param resourceId the value the <code>aud</code> claim of locally
+     *            verified tokens must contain
+     */
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    /**
+     * @param keyRefreshInterval how often the keys are fetched again, in
+     *            milliseconds, or 0 to only fetch them when a token names an
+     *            unknown key
+     */
+    public void setKeyRefreshInterval(long keyRefreshInterval) {
+        this.keyRefreshInterval = keyRefreshInterval;
+    }
+
+    /**
+     * @param minKeyRefreshInterval the least time between two fetches of the
+     *            keys caused by missing keys or unknown key ids (or failed
+     *            fetches), in milliseconds
+     */
+    public void setMinKeyRefreshInterval(long minKeyRefreshInterval) {
+        this.minKeyRefreshInterval = minKeyRefreshInterval;
+    }
+
+    /**
+     * @param checkRevocation true to check locally verified tokens with
+     *            /check_token in the background
+     */
+    public void setCheckRevocation(boolean checkRevocation) {
+        this.checkRevocation = checkRevocation;
+    }
+
+    /**
+     * @param revocationCheckInterval the least time between two background
+     *            checks of the same token, in milliseconds
+     */
+    public void setRevocationCheckInterval(long revocationCheckInterval) {
+        this.revocationCheckInterval = revocationCheckInterval;
     }
 
     @Override
-    public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
+    public void afterPropertiesSet() throws Exception {
+        Assert.state(restTemplate == null || !clientConfigured,
+                        "maxConnections, connectTimeout and readTimeout cannot be used with a custom restTemplate");
+        getRestTemplate();
+        if (tokenKeyEndpointUrl == null) {
+            long timeToLive = Math.max(cacheTimeToLive, negativeCacheTimeToLive);
+            if (timeToLive > 0) {
+                checkTokenCache = new ExpiringLruCache<String, Map<String, Object>>(cacheMaxEntries, timeToLive);
+            }
+            return;
+        }
+        if (keyRefreshInterval > 0) {
+            keyRefresher = Executors.newSingleThreadScheduledExecutor(daemonThreads("uaa-token-key-refresher"));
+            keyRefresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshKeys();
+                    } catch (RuntimeException e) {
+                        logger.warn("Could not refresh the token keys from " + tokenKeyEndpointUrl, e);
+                    }
+                }
+            }, 0, keyRefreshInterval, TimeUnit.MILLISECONDS);
+        }
+        if (checkRevocation) {
+            Assert.state(checkTokenEndpointUrl != null, "A checkTokenEndpointUrl is needed to check revocation");
+            checkedTokens = new ExpiringLruCache<String, Boolean>(10000, revocationCheckInterval);
+            revocationChecker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<Runnable>(1000), daemonThreads("uaa-token-revocation-checker"));
+        }
+    }
 
-        MultiValueMap<String, String> formData = new LinkedMultiValueMap<String, String>();
-        formData.add("token", accessToken);
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", getAuthorizationHeader(clientId, clientSecret));
-        Map<String, Object> map = postForMap(checkTokenEndpointUrl, formData, headers);
+    @Override
+    public void destroy() throws Exception {
+        if (keyRefresher != null) {
+            keyRefresher.shutdownNow();
+            keyRefresher = null;
+        }
+        if (revocationChecker != null) {
+            revocationChecker.shutdownNow();
+            revocationChecker = null;
+        }
+        synchronized (clientLock) {
+            if (connectionManager != null) {
+                connectionManager.shutdown();
+                connectionManager = null;
+            }
+        }
+    }
 
-        if (map.containsKey("error")) {
-            logger.debug("check_token returned error: " + map.get("error"));
-            throw new InvalidTokenException(accessToken);
+    private RestOperations getRestTemplate() {
+        RestOperations result = restTemplate;
+        if (result == null) {
+            synchronized (clientLock) {
+                result = restTemplate;
+                if (result == null) {
+                    result = createRestTemplate();
+                    restTemplate = result;
+                }
+            }
         }
+        return result;
+    }
+
+    private RestTemplate createRestTemplate() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(
+                        HttpClientBuilder.create().setConnectionManager(connectionManager).useSystemProperties()
+                                        .build());
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        RestTemplate result = new RestTemplate(requestFactory);
+        result.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            // Ignore 400
+            public void handleError(ClientHttpResponse response) throws IOException {
+                if (response.getRawStatusCode() != 400) {
+                    super.handleError(response);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    @Override
+    public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
+
+        Map<String, Object> map = tokenKeyEndpointUrl == null ? checkToken(accessToken) : verifyToken(accessToken);
 
         Assert.state(map.containsKey("client_id"), "Client id must be present in response from auth server");
         String remoteClientId = (String) map.get("client_id");
@@ -163,6 +450,247 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
         return new OAuth2Authentication(clientAuthentication.createOAuth2Request(), userAuthentication);
     }
 
+    private Map<String, Object> checkToken(String accessToken) {
+        Map<String, Object> map = null;
+        if (checkTokenCache != null) {
+            map = checkTokenCache.get(accessToken);
+        }
+        if (map == null) {
+            map = getCheckTokenResponse(accessToken);
+        }
+        return accepted(accessToken, map);
+    }
+
+    private Map<String, Object> accepted(String accessToken, Map<String, Object> map) {
+        if (map.containsKey("error")) {
+            logger.debug("check_token returned error: " + map.get("error"));
+            throw new InvalidTokenException(accessToken);
+        }
+        return map;
+    }
+
+    /**
+     * Asks /check_token about the token, unless the same question is already
+     * being asked by another thread, in which case its answer is waited for.
+     */
+    private Map<String, Object> getCheckTokenResponse(final String accessToken) {
+        FutureTask<Map<String, Object>> task = new FutureTask<Map<String, Object>>(
+                        new Callable<Map<String, Object>>() {
+                            @Override
+                            public Map<String, Object> call() throws Exception {
+                                return postCheckToken(accessToken);
+                            }
+                        });
+        FutureTask<Map<String, Object>> inFlight = checksInFlight.putIfAbsent(accessToken, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                checksInFlight.remove(accessToken, task);
+            }
+        }
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking token", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Could not check token", e.getCause());
+        }
+    }
+
+    private Map<String, Object> postCheckToken(String accessToken) {
+        MultiValueMap<String, String> formData = new LinkedMultiValueMap<String, String>();
+        formData.add("token", accessToken);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", getAuthorizationHeader());
+        Map<String, Object> map = Collections.unmodifiableMap(postForMap(checkTokenEndpointUrl, formData, headers));
+        if (checkTokenCache != null) {
+            long now = System.currentTimeMillis();
+            if (map.containsKey("error")) {
+                if (negativeCacheTimeToLive > 0) {
+                    checkTokenCache.put(accessToken, map, now + negativeCacheTimeToLive);
+                }
+            } else if (cacheTimeToLive > 0) {
+                long expiresAt = now + cacheTimeToLive;
+                if (map.get(Claims.EXP) instanceof Number) {
+                    expiresAt = Math.min(expiresAt, ((Number) map.get(Claims.EXP)).longValue() * 1000L);
+                }
+                checkTokenCache.put(accessToken, map, expiresAt);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Verifies the token with the keys of the server and returns its claims,
+     * which are the same as the response of /check_token.
+     */
+    private Map<String, Object> verifyToken(String accessToken) {
+        Jwt jwt;
+        String kid;
+        try {
+            jwt = JwtHelper.decode(accessToken);
+            kid = VerificationKey.getKeyId(accessToken);
+        } catch (RuntimeException e) {
+            throw new InvalidTokenException("Invalid token (could not decode): " + accessToken);
+        }
+        if (!verifySignature(jwt, kid)) {
+            throw new InvalidTokenException("Invalid token (signature could not be verified): " + accessToken);
+        }
+
+        Map<String, Object> claims;
+        try {
+            claims = mapper.readValue(jwt.getClaims(), new TypeReference<Map<String, Object>>() {
+            });
+        } catch (IOException e) {
+            throw new InvalidTokenException("Invalid token (could not read claims): " + accessToken);
+        }
+
+        if (!(claims.get(Claims.EXP) instanceof Number)) {
+            throw new InvalidTokenException("Invalid token (no expiry): " + accessToken);
+        }
+        long expiresAt = ((Number) claims.get(Claims.EXP)).longValue() * 1000L;
+        if (expiresAt <= System.currentTimeMillis()) {
+            throw new InvalidTokenException("Token has expired");
+        }
+        if (issuer != null && !issuer.equals(claims.get(Claims.ISS))) {
+            throw new InvalidTokenException("Invalid issuer for token: " + claims.get(Claims.ISS));
+        }
+        if (resourceId != null && !isAudience(claims.get(Claims.AUD))) {
+            throw new InvalidTokenException("Token is not for " + resourceId);
+        }
+
+        if (revocationChecker != null) {
+            String tokenId = claims.get(Claims.JTI) instanceof String ? (String) claims.get(Claims.JTI) : accessToken;
+            if (revokedTokens.get(tokenId) != null) {
+                throw new InvalidTokenException("Token has been revoked");
+            }
+            checkRevocation(tokenId, accessToken, expiresAt);
+        }
+        return claims;
+    }
+
+    private boolean isAudience(Object audience) {
+        if (audience instanceof Collection) {
+            return ((Collection<?>) audience).contains(resourceId);
+        }
+        return resourceId.equals(audience);
+    }
+
+    private boolean verifySignature(Jwt jwt, String kid) {
+        Map<String, VerificationKey> keys = getKeys(kid);
+        if (kid != null) {
+            VerificationKey key = keys.get(kid);
+            return key != null && verifySignature(jwt, key);
+        }
+        for (VerificationKey key : keys.values()) {
+            if (verifySignature(jwt, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean verifySignature(Jwt jwt, VerificationKey key) {
+        try {
+            jwt.verifySignature(key.getVerifier());
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the keys, fetched first if there are none yet or if the key id
+     *         is unknown, unless they were fetched (or failed to be) very
+     *         recently
+     * @throws InvalidTokenException if there are no keys
+     */
+    private Map<String, VerificationKey> getKeys(String kid) {
+        Map<String, VerificationKey> result = keys;
+        if (isMissing(result, kid) && isFetchAllowed()) {
+            synchronized (keysLock) {
+                result = keys;
+                if (isMissing(result, kid) && isFetchAllowed()) {
+                    try {
+                        result = refreshKeys();
+                    } catch (RuntimeException e) {
+                        keysFetchedAt = System.currentTimeMillis();
+                        logger.warn("Could not refresh the token keys from " + tokenKeyEndpointUrl, e);
+                    }
+                }
+            }
+        }
+        if (result == null) {
+            throw new InvalidTokenException("No token keys available from " + tokenKeyEndpointUrl);
+        }
+        return result;
+    }
+
+    private boolean isMissing(Map<String, VerificationKey> keys, String kid) {
+        return keys == null || (kid != null && !keys.containsKey(kid));
+    }
+
+    private boolean isFetchAllowed() {
+        return System.currentTimeMillis() - keysFetchedAt >= minKeyRefreshInterval;
+    }
+
+    private Map<String, VerificationKey> refreshKeys() {
+        HttpHeaders headers = new HttpHeaders();
+        if (clientId != null) {
+            headers.set("Authorization", getAuthorizationHeader());
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> body = getRestTemplate().exchange(tokenKeyEndpointUrl, HttpMethod.GET,
+                        new HttpEntity<Void>(headers), Map.class).getBody();
+        List<?> values = body.get("keys") instanceof List ? (List<?>) body.get("keys") : Collections
+                        .singletonList(body);
+        Map<String, VerificationKey> result = new LinkedHashMap<String, VerificationKey>();
+        for (Object value : values) {
+            Map<?, ?> key = (Map<?, ?>) value;
+            String kid = (String) key.get("kid");
+            result.put(kid, new VerificationKey(kid, (String) key.get("value")));
+        }
+        Assert.state(!result.isEmpty(), "No token keys returned from " + tokenKeyEndpointUrl);
+        result = Collections.unmodifiableMap(result);
+        keys = result;
+        keysFetchedAt = System.currentTimeMillis();
+        logger.debug("Fetched token keys " + result.keySet() + " from " + tokenKeyEndpointUrl);
+        return result;
+    }
+
+    private void checkRevocation(final String tokenId, final String accessToken, final long expiresAt) {
+        if (checkedTokens.putIfAbsent(tokenId, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            revocationChecker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        accepted(accessToken, postCheckToken(accessToken));
+                    } catch (InvalidTokenException e) {
+                        logger.debug("Token " + tokenId + " is no longer accepted by the server");
+                        revokedTokens.put(tokenId, Boolean.TRUE, expiresAt);
+                    } catch (RuntimeException e) {
+                        checkedTokens.remove(tokenId);
+                        logger.debug("Could not check token " + tokenId + " with the server", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            checkedTokens.remove(tokenId);
+        }
+    }
+
     private Authentication getUserAuthentication(Map<String, Object> map, Set<String> scope) {
         String username = (String) map.get("user_name");
         if (username == null) {
@@ -197,13 +725,18 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
         return result;
     }
 
-    private String getAuthorizationHeader(String clientId, String clientSecret) {
-        String creds = String.format("%s:%s", clientId, clientSecret);
-        try {
-            return "Basic " + new String(Base64.encode(creds.getBytes("UTF-8")));
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException("Could not convert String");
+    private String getAuthorizationHeader() {
+        String result = authorizationHeader;
+        if (result == null) {
+            String creds = String.format("%s:%s", clientId, clientSecret);
+            try {
+                result = "Basic " + new String(Base64.encode(creds.getBytes("UTF-8")));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("Could not convert String");
+            }
+            authorizationHeader = result;
         }
+        return result;
     }
 
     private Map<String, Object> postForMap(String path, MultiValueMap<String, String> formData, HttpHeaders headers) {
@@ -211,7 +744,7 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
             headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
         }
         @SuppressWarnings("rawtypes")
-        Map map = restTemplate.exchange(path, HttpMethod.POST,
+        Map map = getRestTemplate().exchange(path, HttpMethod.POST,
                         new HttpEntity<MultiValueMap<String, String>>(formData, headers), Map.class).getBody();
         @SuppressWarnings("unchecked")
         Map<String, Object> result = map;
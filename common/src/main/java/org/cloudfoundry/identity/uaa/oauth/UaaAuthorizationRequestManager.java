@@ -20,11 +20,11 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import org.cloudfoundry.identity.uaa.security.DefaultSecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
-import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
+import org.cloudfoundry.identity.uaa.util.ScopeMatcher;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.oauth2.common.exceptions.InvalidClientException;
@@ -59,6 +59,13 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
 
     private Collection<String> defaultScopes = new HashSet<String>();
 
+    /**
+     * The matchers of the scopes and of the authorities of each client, which
+     * are used for as long as the client keeps the same scopes
+     */
+    private ExpiringLruCache<String, ScopeMatcher> clientMatchers = new ExpiringLruCache<String, ScopeMatcher>(1000,
+                    24 * 3600 * 1000L);
+
     public OAuth2RequestFactory getRequestFactory() {
         return requestFactory;
     }
@@ -84,6 +91,15 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         this.defaultScopes = defaultScopes;
     }
 
+    /**
+     * @param maxCachedClients the number of clients whose scope matchers are
+     *            kept, zero to build them on every request
+     */
+    public void setMaxCachedClients(int maxCachedClients) {
+        this.clientMatchers = maxCachedClients > 0 ? new ExpiringLruCache<String, ScopeMatcher>(maxCachedClients,
+                        24 * 3600 * 1000L) : null;
+    }
+
     /**
      * A helper to pull stuff out of the current security context.
      * 
@@ -214,13 +230,15 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
     public void validateParameters(Map<String, String> parameters, ClientDetails clientDetails) {
         if (parameters.containsKey("scope")) {
             Set<String> validScope = clientDetails.getScope();
+            String kind = "scope";
             if ("client_credentials".equals(parameters.get("grant_type"))) {
                 validScope = AuthorityUtils.authorityListToSet(clientDetails.getAuthorities());
+                kind = "authorities";
             }
-            Set<Pattern> validWildcards = constructWildcards(validScope);
+            ScopeMatcher validWildcards = getMatcher(clientDetails.getClientId(), kind, validScope);
             Set<String> scopes = OAuth2Utils.parseParameterList(parameters.get("scope"));
             for (String scope : scopes) {
-                if (!matches(validWildcards, scope)) {
+                if (!validWildcards.matches(scope)) {
                     throw new InvalidScopeException("Invalid scope: " + scope
                                     + ". Did you know that you can get default requestedScopes by simply sending no value?",
                                     validScope);
@@ -245,7 +263,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         allowed.addAll(defaultScopes);
 
         // Find intersection of user authorities, default requestedScopes and client requestedScopes:
-        Set<String> result = intersectScopes(new LinkedHashSet<>(requestedScopes), clientDetails.getScope(), allowed);
+        Set<String> result = intersectScopes(new LinkedHashSet<>(requestedScopes), clientDetails, allowed);
 
         // Check that a token with empty scope is not going to be granted
         if (result.isEmpty() && !clientDetails.getScope().isEmpty()) {
@@ -260,21 +278,30 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
     }
 
     protected Set<String> intersectScopes(Set<String> requestedScopes, Set<String> clientScopes, Set<String> userScopes) {
+        return intersectScopes(requestedScopes, ScopeMatcher.of(clientScopes), userScopes);
+    }
+
+    private Set<String> intersectScopes(Set<String> requestedScopes, ClientDetails clientDetails, Set<String> userScopes) {
+        return intersectScopes(requestedScopes,
+                        getMatcher(clientDetails.getClientId(), "scope", clientDetails.getScope()), userScopes);
+    }
+
+    private Set<String> intersectScopes(Set<String> requestedScopes, ScopeMatcher clientWildcards,
+                    Set<String> userScopes) {
         Set<String> result = new HashSet<>(userScopes);
 
-        Set<Pattern> clientWildcards = constructWildcards(clientScopes);
         for (Iterator<String> iter = result.iterator(); iter.hasNext();) {
             String scope = iter.next();
-            if (!matches(clientWildcards, scope)) {
+            if (!clientWildcards.matches(scope)) {
                 iter.remove();
             }
         }
 
-        Set<Pattern> requestedWildcards = constructWildcards(requestedScopes);
+        ScopeMatcher requestedWildcards = ScopeMatcher.of(requestedScopes);
         // Weed out disallowed requestedScopes:
         for (Iterator<String> iter = result.iterator(); iter.hasNext();) {
             String scope = iter.next();
-            if (!matches(requestedWildcards, scope)) {
+            if (!requestedWildcards.matches(scope)) {
                 iter.remove();
             }
         }
@@ -282,12 +309,22 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         return result;
     }
 
-    protected Set<Pattern> constructWildcards(Set<String> scopes) {
-        return UaaStringUtils.constructWildcards(scopes);
-    }
-
-    protected boolean matches(Set<Pattern> wildcards, String scope) {
-        return UaaStringUtils.matches(wildcards, scope);
+    /**
+     * The matcher of the scopes (or authorities) of a client, built again
+     * only when they are not the ones it was built from.
+     */
+    private ScopeMatcher getMatcher(String clientId, String kind, Set<String> scopes) {
+        ExpiringLruCache<String, ScopeMatcher> matchers = clientMatchers;
+        if (matchers == null || clientId == null) {
+            return ScopeMatcher.of(scopes);
+        }
+        String key = clientId + "\n" + kind;
+        ScopeMatcher matcher = matchers.get(key);
+        if (matcher == null || !matcher.isFor(scopes)) {
+            matcher = ScopeMatcher.of(scopes);
+            matchers.put(key, matcher);
+        }
+        return matcher;
     }
 
     private Set<String> getResourceIds(ClientDetails clientDetails, Set<String> scopes) {
@@ -360,7 +397,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         }
         if (!clientCredentials) {
             Set<String> userScopes = getUserScopes();
-            scopes = intersectScopes(scopes, clientDetails.getScope(), userScopes);
+            scopes = intersectScopes(scopes, clientDetails, userScopes);
         }
         return scopes;
     }
@@ -12,12 +12,19 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.oauth.approval;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface ApprovalStore {
 
     public boolean addApproval(Approval approval);
 
+    /**
+     * Adds or refreshes several approvals at once.
+     */
+    public boolean addApprovals(Collection<Approval> approvals);
+
     public boolean revokeApproval(Approval approval);
 
     public boolean revokeApprovals(String filter);
@@ -25,4 +32,9 @@ public interface ApprovalStore {
     public List<Approval> getApprovals(String filter);
 
     public List<Approval> getApprovals(String userId, String clientId);
+
+    /**
+     * @return the approvals of each of the users, keyed by user id
+     */
+    public Map<String, List<Approval>> getApprovalsByUser(Collection<String> userIds);
 }
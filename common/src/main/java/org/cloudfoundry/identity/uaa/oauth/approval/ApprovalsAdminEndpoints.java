@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.uaa.oauth.approval;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -160,8 +161,8 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
                 approval.setUserId(currentUserId);
             }
             approval.setLastUpdatedAt(new Date());
-            approvalStore.addApproval(approval);
         }
+        approvalStore.addApprovals(Arrays.asList(approvals));
         return approvalStore.getApprovals(String.format(USER_FILTER_TEMPLATE, currentUserId));
     }
 
@@ -181,8 +182,8 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
                 approval.setUserId(currentUserId);
             }
             approval.setLastUpdatedAt(new Date());
-            approvalStore.addApproval(approval);
         }
+        approvalStore.addApprovals(Arrays.asList(approvals));
         return approvalStore.getApprovals(String.format(USER_AND_CLIENT_FILTER_TEMPLATE, currentUserId, clientId));
     }
 
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.approval;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.db.JdbcTaskLock;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.Assert;
+
+/**
+ * Deletes expired approvals every <code>purgeInterval</code> milliseconds on
+ * a background thread, in chunks of at most <code>chunkSize</code> rows.
+ * <p>
+ * When a {@link JdbcTaskLock} is set, only the node holding its lease purges,
+ * and the others skip their turn. The lease lasts two intervals and is
+ * renewed on every purge, so another node takes over within two intervals of
+ * the purging node stopping.
+ */
+@ManagedResource
+public class ExpiredApprovalPurger implements InitializingBean, DisposableBean {
+
+    public static final String LOCK_NAME = "purge-expired-approvals";
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final JdbcApprovalStore approvalStore;
+
+    private JdbcTaskLock taskLock;
+
+    private boolean enabled = true;
+
+    private long purgeInterval = 10 * 60 * 1000;
+
+    private int chunkSize = JdbcApprovalStore.DEFAULT_PURGE_CHUNK_SIZE;
+
+    private ScheduledExecutorService purger;
+
+    private final AtomicLong purges = new AtomicLong();
+
+    private final AtomicLong skippedPurges = new AtomicLong();
+
+    private final AtomicLong purgeFailures = new AtomicLong();
+
+    private final AtomicLong purgedApprovals = new AtomicLong();
+
+    private final AtomicLong totalPurgeMillis = new AtomicLong();
+
+    private volatile long lastPurgeMillis;
+
+    public ExpiredApprovalPurger(JdbcApprovalStore approvalStore) {
+        Assert.notNull(approvalStore, "approvalStore must not be null");
+        this.approvalStore = approvalStore;
+    }
+
+    public void setTaskLock(JdbcTaskLock taskLock) {
+        this.taskLock = taskLock;
+    }
+
+    /**
+     * @param enabled false to not schedule the purge
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setPurgeInterval(long purgeInterval) {
+        this.purgeInterval = purgeInterval;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.state(chunkSize > 0, "chunkSize must be positive");
+        if (!enabled || purgeInterval <= 0) {
+            return;
+        }
+        purger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "uaa-expired-approval-purger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        purger.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purge();
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error in the expired approval purger", e);
+                }
+            }
+        }, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (purger != null) {
+            purger.shutdownNow();
+            purger = null;
+            if (taskLock != null) {
+                try {
+                    taskLock.release(LOCK_NAME);
+                } catch (RuntimeException e) {
+                    logger.debug("Could not release the expired approval purge lock", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the expired approvals, unless another node holds the lease.
+     *
+     * @return the number of approvals deleted
+     */
+    public int purge() {
+        if (taskLock != null && !taskLock.tryAcquire(LOCK_NAME, 2 * Math.max(purgeInterval, 1000))) {
+            skippedPurges.incrementAndGet();
+            logger.debug("Expired approvals are purged by another node");
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try {
+            count = approvalStore.purgeExpiredApprovals(chunkSize);
+        } catch (RuntimeException e) {
+            purgeFailures.incrementAndGet();
+            throw e;
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            purges.incrementAndGet();
+            purgedApprovals.addAndGet(count);
+            totalPurgeMillis.addAndGet(elapsed);
+            lastPurgeMillis = elapsed;
+        }
+        logger.debug("Expired approval purge complete, deleted " + count + " approvals.");
+        return count;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Approval Purges")
+    public long getPurgeCount() {
+        return purges.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Approval Purges Left To Other Nodes")
+    public long getSkippedPurgeCount() {
+        return skippedPurges.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Approval Purge Failures")
+    public long getPurgeFailureCount() {
+        return purgeFailures.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Approvals Deleted")
+    public long getPurgedApprovalCount() {
+        return purgedApprovals.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Total Expired Approval Purge Millis")
+    public long getTotalPurgeMillis() {
+        return totalPurgeMillis.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Last Expired Approval Purge Millis")
+    public long getLastPurgeMillis() {
+        return lastPurgeMillis;
+    }
+}
@@ -14,11 +14,18 @@ package org.cloudfoundry.identity.uaa.oauth.approval;
 
 import static org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus.APPROVED;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -26,7 +33,9 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.ApprovalModifiedEvent;
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus;
+import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultLimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.rest.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter.ProcessedFilter;
 import org.springframework.context.ApplicationEvent;
@@ -35,6 +44,8 @@ import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
@@ -59,6 +70,8 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
 
     private static final String FIELDS = "user_id,client_id,scope,expiresAt,status,lastModifiedAt";
 
+    private static final String[] KEY_COLUMNS = { "user_id", "client_id", "scope" };
+
     private static final String ADD_AUTHZ_SQL = String.format("insert into %s ( %s ) values (?,?,?,?,?,?)", TABLE_NAME,
                     FIELDS);
 
@@ -66,13 +79,58 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
                     .format("update %s set lastModifiedAt=?, expiresAt=?, status=? where user_id=? and client_Id=? and scope=?",
                                     TABLE_NAME);
 
+    private static final String UPDATE_AUTHZ_FIELDS = "expiresAt=%1$s.expiresAt, status=%1$s.status, lastModifiedAt=%1$s.lastModifiedAt";
+
+    /**
+     * Statements that insert an approval or refresh the existing one, keyed
+     * by platform, taking the same parameters as the insert
+     */
+    private static final Map<String, String> UPSERT_AUTHZ_SQL = new HashMap<String, String>();
+
+    static {
+        UPSERT_AUTHZ_SQL.put("hsqldb", String.format("merge into %1$s using (values(cast(? as varchar(255)),"
+                        + "cast(? as varchar(255)),cast(? as varchar(255)),cast(? as timestamp),cast(? as varchar(50)),"
+                        + "cast(? as timestamp))) as vals(%2$s) on %1$s.user_id=vals.user_id and "
+                        + "%1$s.client_id=vals.client_id and %1$s.scope=vals.scope when matched then update set %3$s "
+                        + "when not matched then insert (%2$s) values (vals.user_id,vals.client_id,vals.scope,"
+                        + "vals.expiresAt,vals.status,vals.lastModifiedAt)", TABLE_NAME, FIELDS,
+                        String.format(UPDATE_AUTHZ_FIELDS, "vals")));
+        UPSERT_AUTHZ_SQL.put("mysql", String.format("%s on duplicate key update expiresAt=values(expiresAt), "
+                        + "status=values(status), lastModifiedAt=values(lastModifiedAt)", ADD_AUTHZ_SQL));
+        UPSERT_AUTHZ_SQL.put("postgresql", String.format("%s on conflict (user_id, client_id, scope) do update set %s",
+                        ADD_AUTHZ_SQL, String.format(UPDATE_AUTHZ_FIELDS, "excluded")));
+    }
+
     private static final String GET_AUTHZ_SQL = String.format("select %s from %s", FIELDS, TABLE_NAME);
 
+    private static final String GET_USERS_AUTHZ_SQL = String.format("select %s from %s where user_id in (:ids)", FIELDS,
+                    TABLE_NAME);
+
+    /**
+     * The largest number of user ids in one IN clause
+     */
+    private static final int MAX_IDS_PER_QUERY = 100;
+
     private static final String DELETE_AUTHZ_SQL = String.format("delete from %s", TABLE_NAME);
 
+    private static final String GET_EXPIRED_AUTHZ_SQL = String.format(
+                    "select user_id,client_id,scope from %s where expiresAt <= ? order by expiresAt", TABLE_NAME);
+
+    private static final String DELETE_EXPIRED_AUTHZ_SQL = String.format(
+                    "%s where user_id=? and client_id=? and scope=? and expiresAt <= ?", DELETE_AUTHZ_SQL);
+
+    /**
+     * The default number of expired approvals deleted in one batch
+     */
+    public static final int DEFAULT_PURGE_CHUNK_SIZE = 1000;
+
     private static final String EXPIRE_AUTHZ_SQL = String.format("update %s set expiresAt = :expiry", TABLE_NAME);
 
     private boolean handleRevocationsAsExpiry = false;
+    private String platform;
+    private volatile String upsertSql;
+    private volatile boolean upsertSqlChecked = false;
+    private LimitSqlAdapter limitSqlAdapter = new DefaultLimitSqlAdapter();
     private ApplicationEventPublisher applicationEventPublisher;
 
     public JdbcApprovalStore(JdbcTemplate jdbcTemplate, JdbcPagingListFactory pagingListFactory,
@@ -88,6 +146,51 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
         this.handleRevocationsAsExpiry = handleRevocationsAsExpiry;
     }
 
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.limitSqlAdapter = limitSqlAdapter;
+    }
+
+    /**
+     * The database platform (hsqldb, mysql or postgresql), so that approvals
+     * can be written with the native upsert of the platform in one statement.
+     * On other platforms an approval is refreshed, and inserted if it did not
+     * exist. The PostgreSQL statement is only used if the server is version
+     * 9.5 or later, which is checked the first time an approval is added.
+     */
+    public void setPlatform(String platform) {
+        this.platform = platform;
+        this.upsertSqlChecked = false;
+    }
+
+    private String getUpsertSql() {
+        if (!upsertSqlChecked) {
+            String sql = platform == null ? null : UPSERT_AUTHZ_SQL.get(platform);
+            if ("postgresql".equals(platform) && !isPostgresqlUpsertSupported()) {
+                logger.info("Database does not support insert ... on conflict, approvals are refreshed or inserted");
+                sql = null;
+            }
+            upsertSql = sql;
+            upsertSqlChecked = true;
+        }
+        return upsertSql;
+    }
+
+    private boolean isPostgresqlUpsertSupported() {
+        try {
+            return jdbcTemplate.execute(new ConnectionCallback<Boolean>() {
+                @Override
+                public Boolean doInConnection(Connection con) throws SQLException {
+                    DatabaseMetaData metaData = con.getMetaData();
+                    int major = metaData.getDatabaseMajorVersion();
+                    return major > 9 || (major == 9 && metaData.getDatabaseMinorVersion() >= 5);
+                }
+            });
+        } catch (DataAccessException e) {
+            logger.warn("Could not read the database version", e);
+            return false;
+        }
+    }
+
     public boolean refreshApproval(final Approval approval) {
         logger.debug(String.format("refreshing approval: [%s]", approval));
         int refreshed = jdbcTemplate.update(REFRESH_AUTHZ_SQL, new PreparedStatementSetter() {
@@ -110,6 +213,57 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
     @Override
     public boolean addApproval(final Approval approval) {
         logger.debug(String.format("adding approval: [%s]", approval));
+        String upsert = getUpsertSql();
+        if (upsert != null) {
+            jdbcTemplate.update(upsert, new PreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps) throws SQLException {
+                    setInsertValues(ps, approval);
+                }
+            });
+        }
+        else {
+            refreshOrInsertApproval(approval);
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        publish(new ApprovalModifiedEvent(approval, authentication));
+        return true;
+    }
+
+    @Override
+    public boolean addApprovals(Collection<Approval> approvals) {
+        if (approvals.isEmpty()) {
+            return true;
+        }
+        logger.debug(String.format("adding %d approvals", approvals.size()));
+        final List<Approval> batch = new ArrayList<Approval>(approvals);
+        String upsert = getUpsertSql();
+        if (upsert != null) {
+            jdbcTemplate.batchUpdate(upsert, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    setInsertValues(ps, batch.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return batch.size();
+                }
+            });
+        }
+        else {
+            for (Approval approval : batch) {
+                refreshOrInsertApproval(approval);
+            }
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        for (Approval approval : batch) {
+            publish(new ApprovalModifiedEvent(approval, authentication));
+        }
+        return true;
+    }
+
+    private void refreshOrInsertApproval(final Approval approval) {
         try {
             refreshApproval(approval); // try to refresh the approval
         } catch (DataIntegrityViolationException ex) { // could not find the
@@ -117,19 +271,20 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
             int count = jdbcTemplate.update(ADD_AUTHZ_SQL, new PreparedStatementSetter() {
                 @Override
                 public void setValues(PreparedStatement ps) throws SQLException {
-                    ps.setString(1, approval.getUserId());
-                    ps.setString(2, approval.getClientId());
-                    ps.setString(3, approval.getScope());
-                    ps.setTimestamp(4, new Timestamp(approval.getExpiresAt().getTime()));
-                    ps.setString(5, (approval.getStatus() == null ? APPROVED : approval.getStatus()).toString());
-                    ps.setTimestamp(6, new Timestamp(approval.getLastUpdatedAt().getTime()));
+                    setInsertValues(ps, approval);
                 }
             });
             if (count==0) throw new EmptyResultDataAccessException("Approval add failed", 1);
         }
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        publish(new ApprovalModifiedEvent(approval, authentication));
-        return true;
+    }
+
+    private static void setInsertValues(PreparedStatement ps, Approval approval) throws SQLException {
+        ps.setString(1, approval.getUserId());
+        ps.setString(2, approval.getClientId());
+        ps.setString(3, approval.getScope());
+        ps.setTimestamp(4, new Timestamp(approval.getExpiresAt().getTime()));
+        ps.setString(5, (approval.getStatus() == null ? APPROVED : approval.getStatus()).toString());
+        ps.setTimestamp(6, new Timestamp(approval.getLastUpdatedAt().getTime()));
     }
 
     @Override
@@ -168,13 +323,7 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
     public boolean purgeExpiredApprovals() {
         logger.debug("Purging expired approvals from database");
         try {
-            int deleted = jdbcTemplate.update(DELETE_AUTHZ_SQL + " where expiresAt <= ?",
-                            new PreparedStatementSetter() {
-                                @Override
-                                public void setValues(PreparedStatement ps) throws SQLException {
-                                    ps.setTimestamp(1, new Timestamp(new Date().getTime()));
-                                }
-                            });
+            int deleted = purgeExpiredApprovals(DEFAULT_PURGE_CHUNK_SIZE);
             logger.debug(deleted + " expired approvals deleted");
         } catch (DataAccessException ex) {
             logger.error("Error purging expired approvals", ex);
@@ -183,19 +332,87 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
         return true;
     }
 
+    /**
+     * Deletes the approvals that have expired, at most <code>chunkSize</code>
+     * in each batch, so that no statement holds locks on many rows.
+     *
+     * @return the number of approvals deleted
+     */
+    public int purgeExpiredApprovals(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunkSize must be positive");
+        final Timestamp now = new Timestamp(System.currentTimeMillis());
+        String sql = limitSqlAdapter.getLimitSql(GET_EXPIRED_AUTHZ_SQL, 0, chunkSize);
+        int count = 0;
+        List<String[]> keys;
+        do {
+            keys = jdbcTemplate.query(sql, new RowMapper<String[]>() {
+                @Override
+                public String[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    return new String[] { rs.getString(1), rs.getString(2), rs.getString(3) };
+                }
+            }, now);
+            if (keys.isEmpty()) {
+                break;
+            }
+            final List<String[]> chunk = keys;
+            int deleted = 0;
+            for (int n : jdbcTemplate.batchUpdate(DELETE_EXPIRED_AUTHZ_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    String[] key = chunk.get(i);
+                    ps.setString(1, key[0]);
+                    ps.setString(2, key[1]);
+                    ps.setString(3, key[2]);
+                    ps.setTimestamp(4, now);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk.size();
+                }
+            })) {
+                deleted += n == Statement.SUCCESS_NO_INFO ? 1 : Math.max(n, 0);
+            }
+            if (deleted == 0) {
+                // someone else is deleting the same rows
+                break;
+            }
+            count += deleted;
+        } while (keys.size() == chunkSize);
+        return count;
+    }
+
     @Override
     public List<Approval> getApprovals(String filter) {
         ProcessedFilter where = queryConverter.convert(filter, null, true);
         logger.debug(String.format("Filtering approvals with filter: [%s]", where));
         try {
             return pagingListFactory.createJdbcPagingList(GET_AUTHZ_SQL + " where " +
-                            where.getSql(), where.getParams(), rowMapper, 200);
+                            where.getSql(), where.getParams(), rowMapper, 200, KEY_COLUMNS);
         } catch (DataAccessException e) {
             logger.error("Error filtering approvals with filter: " + where, e);
             throw new IllegalArgumentException("Invalid filter: " + filter);
         }
     }
 
+    @Override
+    public Map<String, List<Approval>> getApprovalsByUser(Collection<String> userIds) {
+        Map<String, List<Approval>> result = new HashMap<String, List<Approval>>();
+        for (String userId : userIds) {
+            result.put(userId, new ArrayList<Approval>());
+        }
+        List<String> ids = new ArrayList<String>(result.keySet());
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            List<String> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY));
+            for (Approval approval : template.query(GET_USERS_AUTHZ_SQL, Collections.singletonMap("ids", chunk),
+                            rowMapper)) {
+                result.get(approval.getUserId()).add(approval);
+            }
+        }
+        return result;
+    }
+
     @Override
     public List<Approval> getApprovals(String userId, String clientId) {
         return getApprovals(String.format("user_id eq \"%s\" and client_id eq \"%s\"", userId, clientId));
@@ -0,0 +1,289 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import org.cloudfoundry.identity.uaa.oauth.Claims;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.io.SerializedString;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.codec.Codecs;
+import org.springframework.security.jwt.crypto.sign.Signer;
+import org.springframework.util.Assert;
+
+/**
+ * Writes signed JWTs from a map of claims without going through intermediate
+ * strings: the claims are streamed as JSON into a buffer, base64url encoded
+ * straight after the header, and the signature is computed over that buffer.
+ * The output is the same as
+ * <code>JwtHelper.encode(mapper.writeValueAsString(claims), signer)</code>.
+ * <p>
+ * The encoded header is computed once from the signer and key id, and the
+ * names of the standard claims and the last issuer are kept pre-encoded. The
+ * buffers are reused by each thread. When a MAC key is given the signature is
+ * computed in place; other signers are given a copy of the signing input.
+ */
+public class JwtTokenWriter {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] BASE64URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+                    .getBytes(US_ASCII);
+
+    private static final JsonFactory factory = new ObjectMapper().getJsonFactory();
+
+    private static final Map<String, SerializedString> names = new HashMap<String, SerializedString>();
+
+    static {
+        for (String name : Arrays.asList(Claims.JTI, Claims.SUB, Claims.AUTHORITIES, Claims.SCOPE,
+                        Claims.CLIENT_ID, Claims.CID, Claims.AZP, Claims.GRANT_TYPE, Claims.USER_ID,
+                        Claims.USER_NAME, Claims.EMAIL, Claims.IAT, Claims.EXP, Claims.ISS, Claims.AUD,
+                        Claims.ADDITIONAL_AZ_ATTR)) {
+            names.put(name, new SerializedString(name));
+        }
+    }
+
+    private final Signer signer;
+
+    private final SecretKey macKey;
+
+    private final byte[] header;
+
+    private volatile SerializedString issuer = new SerializedString("");
+
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+    /**
+     * @param signer the signer of the tokens
+     */
+    public JwtTokenWriter(Signer signer) {
+        this(signer, null);
+    }
+
+    /**
+     * @param signer the signer of the tokens
+     * @param macKey the key of the signer if it is a MAC signer, so that the
+     *            signature can be computed in place, or null
+     */
+    public JwtTokenWriter(Signer signer, SecretKey macKey) {
+        this(signer, macKey, null);
+    }
+
+    /**
+     * @param signer the signer of the tokens
+     * @param macKey the key of the signer if it is a MAC signer, so that the
+     *            signature can be computed in place, or null
+     * @param keyId the id of the key to write in the <code>kid</code> header,
+     *            or null
+     */
+    public JwtTokenWriter(Signer signer, SecretKey macKey, String keyId) {
+        Assert.notNull(signer, "signer must not be null");
+        this.signer = signer;
+        this.macKey = macKey;
+        String probe = JwtHelper.encode("{}", signer).getEncoded();
+        String header = probe.substring(0, probe.indexOf('.'));
+        if (keyId != null) {
+            try {
+                ObjectMapper mapper = new ObjectMapper();
+                Map<String, Object> params = mapper.readValue(Codecs.b64UrlDecode(header),
+                                new TypeReference<LinkedHashMap<String, Object>>() {
+                                });
+                params.put("kid", keyId);
+                header = Codecs.utf8Decode(Codecs.b64UrlEncode(mapper.writeValueAsBytes(params)));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write the token header", e);
+            }
+        }
+        this.header = (header + ".").getBytes(US_ASCII);
+    }
+
+    public Signer getSigner() {
+        return signer;
+    }
+
+    /**
+     * @param claims the claims of the token, in the order they are written
+     * @return the encoded and signed token
+     */
+    public String write(Map<String, ?> claims) {
+        Buffers buffers = this.buffers.get();
+        Buffer json = buffers.json;
+        Buffer token = buffers.token;
+        json.reset();
+        try {
+            JsonGenerator generator = factory.createJsonGenerator(json, JsonEncoding.UTF8);
+            writeClaims(generator, claims);
+            generator.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot convert token claims to JSON", e);
+        }
+        token.reset();
+        token.write(header, 0, header.length);
+        encode(json.bytes(), 0, json.size(), token);
+        byte[] signature = sign(token.bytes(), token.size());
+        token.write('.');
+        encode(signature, 0, signature.length, token);
+        return new String(token.bytes(), 0, token.size(), US_ASCII);
+    }
+
+    private byte[] sign(byte[] input, int length) {
+        if (macKey == null) {
+            return signer.sign(Arrays.copyOf(input, length));
+        }
+        Mac mac = macs.get();
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(macKey.getAlgorithm());
+                mac.init(macKey);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            macs.set(mac);
+        }
+        mac.update(input, 0, length);
+        return mac.doFinal();
+    }
+
+    private void writeClaims(JsonGenerator generator, Map<String, ?> claims) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, ?> claim : claims.entrySet()) {
+            SerializedString name = names.get(claim.getKey());
+            if (name != null) {
+                generator.writeFieldName(name);
+            } else {
+                generator.writeFieldName(claim.getKey());
+            }
+            if (Claims.ISS.equals(claim.getKey()) && claim.getValue() instanceof String) {
+                writeIssuer(generator, (String) claim.getValue());
+            } else {
+                writeValue(generator, claim.getValue());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeIssuer(JsonGenerator generator, String value) throws IOException {
+        SerializedString issuer = this.issuer;
+        if (!issuer.getValue().equals(value)) {
+            issuer = new SerializedString(value);
+            this.issuer = issuer;
+        }
+        generator.writeString(issuer);
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object item : (Collection<?>) value) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else {
+            // anything else is left to the mapper, including null
+            generator.writeObject(value);
+        }
+    }
+
+    /**
+     * Appends the unpadded base64url encoding of the input to the buffer.
+     */
+    static void encode(byte[] input, int offset, int length, Buffer output) {
+        output.ensureCapacity((length + 2) / 3 * 4);
+        byte[] out = output.bytes();
+        int pos = output.size();
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = (input[i] & 0xff) << 16 | (input[i + 1] & 0xff) << 8 | (input[i + 2] & 0xff);
+            out[pos++] = BASE64URL[bits >>> 18];
+            out[pos++] = BASE64URL[bits >>> 12 & 0x3f];
+            out[pos++] = BASE64URL[bits >>> 6 & 0x3f];
+            out[pos++] = BASE64URL[bits & 0x3f];
+        }
+        if (i < end) {
+            int bits = (input[i] & 0xff) << 16 | (i + 1 < end ? (input[i + 1] & 0xff) << 8 : 0);
+            out[pos++] = BASE64URL[bits >>> 18];
+            out[pos++] = BASE64URL[bits >>> 12 & 0x3f];
+            if (i + 1 < end) {
+                out[pos++] = BASE64URL[bits >>> 6 & 0x3f];
+            }
+        }
+        output.setSize(pos);
+    }
+
+    /**
+     * A byte array output stream that exposes its array, so that it can be
+     * encoded and signed without being copied.
+     */
+    static class Buffer extends ByteArrayOutputStream {
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        void setSize(int size) {
+            count = size;
+        }
+
+        void ensureCapacity(int extra) {
+            if (count + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+            }
+        }
+    }
+
+    private static class Buffers {
+
+        private final Buffer json = new Buffer(1024);
+
+        private final Buffer token = new Buffer(2048);
+    }
+}
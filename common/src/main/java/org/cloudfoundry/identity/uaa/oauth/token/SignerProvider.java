@@ -15,11 +15,21 @@ package org.cloudfoundry.identity.uaa.oauth.token;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.codec.Codecs;
 import org.springframework.security.jwt.crypto.sign.InvalidSignatureException;
 import org.springframework.security.jwt.crypto.sign.MacSigner;
 import org.springframework.security.jwt.crypto.sign.RsaSigner;
@@ -28,19 +38,31 @@ import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
 import org.springframework.security.jwt.crypto.sign.Signer;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 /**
  * A class that knows how to provide the signing and verification keys
- * 
- *
+ * <p>
+ * Tokens are signed with the current key. Besides the current key, tokens
+ * are accepted with any of the other verification keys, so that the signing
+ * key can be rotated without invalidating the tokens that are still in use.
+ * When the current key has an id, it is written in the <code>kid</code>
+ * header of the tokens and the verifier is picked by that id; tokens without
+ * a <code>kid</code> are checked against every key, current first.
  */
 public class SignerProvider implements InitializingBean {
 
     private final Log logger = LogFactory.getLog(getClass());
     private String verifierKey = new RandomValueStringGenerator().generate();
     private String signingKey = verifierKey;
-    private Signer signer = new MacSigner(verifierKey);
+    private SecretKey macKey = new SecretKeySpec(Codecs.utf8Encode(verifierKey), "HMACSHA256");
+    private Signer signer = new MacSigner(macKey);
     private String type = "MAC";
+    private String keyId = null;
+    private Map<String, String> verificationKeys = Collections.emptyMap();
+    private volatile SignatureVerifier verifier;
+    private volatile JwtTokenWriter tokenWriter;
+    private volatile Map<String, VerificationKey> keys;
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -60,11 +82,15 @@ public class SignerProvider implements InitializingBean {
             } catch (InvalidSignatureException e) {
                 throw new RuntimeException("Signing and verification RSA keys do not match", e);
             }
+            this.verifier = verifier;
+            this.keys = null;
         }
         else {
             Assert.state(this.signingKey == this.verifierKey,
                             "For MAC signing you do not need to specify the verifier key separately, and if you do it must match the signing key");
         }
+        // parse all the keys now rather than on the first token
+        getVerificationKeys();
     }
 
     public Signer getSigner() {
@@ -89,7 +115,104 @@ public class SignerProvider implements InitializingBean {
         return verifierKey.startsWith("-----BEGIN");
     }
 
+    /**
+     * The verifier is built from the configured keys the first time it is
+     * needed and then reused, so that the key material (e.g. a PEM encoded
+     * RSA public key) is not parsed again for every token that is checked.
+     * Setting either key discards the cached instance.
+     *
+     * @return the verifier for tokens signed by this provider
+     */
     public SignatureVerifier getVerifier() {
+        SignatureVerifier result = verifier;
+        if (result == null) {
+            result = createVerifier();
+            verifier = result;
+        }
+        return result;
+    }
+
+    /**
+     * The writer is built the first time it is needed, like the verifier, and
+     * setting the signing key or its id discards it.
+     *
+     * @return the writer of tokens signed by this provider
+     */
+    public JwtTokenWriter getTokenWriter() {
+        JwtTokenWriter result = tokenWriter;
+        if (result == null) {
+            result = new JwtTokenWriter(signer, macKey, keyId);
+            tokenWriter = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the current key followed by the other keys tokens are accepted
+     *         with
+     */
+    public Collection<VerificationKey> getVerificationKeys() {
+        return getKeys().values();
+    }
+
+    /**
+     * @param keyId the id of a key, or null for the current key if it has no
+     *            id
+     * @return the key with that id, or null if there is none
+     */
+    public VerificationKey getVerificationKey(String keyId) {
+        return getKeys().get(keyId);
+    }
+
+    /**
+     * Decodes a token and verifies its signature with the key named by its
+     * <code>kid</code> header, or with any of the keys if it has none.
+     *
+     * @param token the encoded token
+     * @return the decoded token
+     * @throws InvalidSignatureException if the token is not signed with any of
+     *             the keys
+     */
+    public Jwt decodeAndVerify(String token) {
+        Jwt jwt = JwtHelper.decode(token);
+        String kid = VerificationKey.getKeyId(token);
+        if (kid != null) {
+            VerificationKey key = getKeys().get(kid);
+            if (key == null) {
+                throw new InvalidSignatureException("No verification key with id " + kid);
+            }
+            jwt.verifySignature(key.getVerifier());
+            return jwt;
+        }
+        RuntimeException failure = null;
+        for (VerificationKey key : getKeys().values()) {
+            try {
+                jwt.verifySignature(key.getVerifier());
+                return jwt;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private Map<String, VerificationKey> getKeys() {
+        Map<String, VerificationKey> result = keys;
+        if (result == null) {
+            result = new LinkedHashMap<String, VerificationKey>();
+            result.put(keyId, new VerificationKey(keyId, verifierKey, getVerifier()));
+            for (Map.Entry<String, String> key : verificationKeys.entrySet()) {
+                if (!key.getKey().equals(keyId)) {
+                    result.put(key.getKey(), new VerificationKey(key.getKey(), key.getValue()));
+                }
+            }
+            result = Collections.unmodifiableMap(result);
+            keys = result;
+        }
+        return result;
+    }
+
+    private SignatureVerifier createVerifier() {
         if (isAssymetricKey(signingKey)) {
             return new RsaVerifier(verifierKey);
         }
@@ -113,13 +236,58 @@ public class SignerProvider implements InitializingBean {
 
         if (isAssymetricKey(key)) {
             signer = new RsaSigner(key);
+            macKey = null;
             logger.debug("Configured with RSA signing key");
         }
         else {
             // Assume it's an HMAC key
             this.verifierKey = key;
-            signer = new MacSigner(key);
+            macKey = new SecretKeySpec(Codecs.utf8Encode(key), "HMACSHA256");
+            signer = new MacSigner(macKey);
+        }
+        this.verifier = null;
+        this.tokenWriter = null;
+        this.keys = null;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * @param keyId the id of the signing key, written in the <code>kid</code>
+     *            header of the tokens, or null to leave it out
+     */
+    public void setKeyId(String keyId) {
+        this.keyId = StringUtils.hasText(keyId) ? keyId : null;
+        this.tokenWriter = null;
+        this.keys = null;
+    }
+
+    /**
+     * Sets the keys that tokens are accepted with besides the current one,
+     * for instance the key used before a rotation until the tokens signed
+     * with it have expired, or the next key so that resource servers can
+     * fetch it before tokens are signed with it.
+     *
+     * @param verificationKeys RSA public keys or MAC secrets by key id
+     */
+    public void setVerificationKeys(Map<String, String> verificationKeys) {
+        Map<String, String> keys = new LinkedHashMap<String, String>();
+        if (verificationKeys != null) {
+            for (Map.Entry<String, String> key : verificationKeys.entrySet()) {
+                Assert.hasText(key.getKey(), "Verification key ids must not be empty");
+                Assert.hasText(key.getValue(), "Verification key " + key.getKey() + " must not be empty");
+                String value = key.getValue().trim();
+                if (isPrivateKey(value)) {
+                    throw new IllegalArgumentException("Private key cannot be set as verification key "
+                                    + key.getKey());
+                }
+                keys.put(key.getKey(), value);
+            }
         }
+        this.verificationKeys = keys;
+        this.keys = null;
     }
 
     /**
@@ -143,17 +311,22 @@ public class SignerProvider implements InitializingBean {
      *            public key)
      */
     public void setVerifierKey(String verifierKey) {
-        boolean valid = false;
+        if (isPrivateKey(verifierKey)) {
+            throw new IllegalArgumentException("Private key cannot be set as verifierKey property");
+        }
+        this.verifierKey = verifierKey;
+        this.verifier = null;
+        this.keys = null;
+    }
+
+    private boolean isPrivateKey(String key) {
         try {
-            new RsaSigner(verifierKey);
+            new RsaSigner(key);
         } catch (Exception expected) {
             // Expected
-            valid = true;
+            return false;
         }
-        if (!valid) {
-            throw new IllegalArgumentException("Private key cannot be set as verifierKey property");
-        }
-        this.verifierKey = verifierKey;
+        return true;
     }
 
 
@@ -16,7 +16,10 @@ import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.security.Principal;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -65,17 +68,53 @@ public class TokenKeyEndpoint implements InitializingBean {
     @RequestMapping(value = "/token_key", method = RequestMethod.GET)
     @ResponseBody
     public Map<String, String> getKey(Principal principal) {
-        if ((principal == null || principal instanceof AnonymousAuthenticationToken) && !signerProvider.isPublic()) {
+        if (isAnonymous(principal) && !signerProvider.isPublic()) {
             throw new AccessDeniedException("You need to authenticate to see a shared key");
         }
+        return getKey(signerProvider.getVerificationKey(signerProvider.getKeyId()));
+    }
+
+    /**
+     * Get all the keys that tokens are currently accepted with, the one they
+     * are signed with first, so that resource servers can fetch them ahead of
+     * a key rotation and pick the key of a token by its <code>kid</code>
+     * header. Shared keys are only listed if the principal is authenticated.
+     *
+     * @param principal the currently authenticated user if there is one
+     * @return the keys used to verify tokens, as a JSON Web Key Set
+     */
+    @RequestMapping(value = "/token_keys", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, List<Map<String, String>>> getKeys(Principal principal) {
+        boolean anonymous = isAnonymous(principal);
+        List<Map<String, String>> keys = new ArrayList<Map<String, String>>();
+        for (VerificationKey key : signerProvider.getVerificationKeys()) {
+            if (!anonymous || key.isPublic()) {
+                keys.add(getKey(key));
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new AccessDeniedException("You need to authenticate to see a shared key");
+        }
+        return Collections.singletonMap("keys", keys);
+    }
+
+    private boolean isAnonymous(Principal principal) {
+        return principal == null || principal instanceof AnonymousAuthenticationToken;
+    }
+
+    private Map<String, String> getKey(VerificationKey key) {
         Map<String, String> result = new LinkedHashMap<String, String>();
-        result.put("alg", signerProvider.getSigner().algorithm());
-        result.put("value", signerProvider.getVerifierKey());
+        if (key.getKeyId() != null) {
+            result.put("kid", key.getKeyId());
+        }
+        result.put("alg", key.getAlgorithm());
+        result.put("value", key.getValue());
         //new values per OpenID and JWK spec
-        result.put("kty", signerProvider.getType());
+        result.put("kty", key.getType());
         result.put("use", "sig");
-        if (signerProvider.isPublic() && "RSA".equals(signerProvider.getType())) {
-            SignatureVerifier verifier = signerProvider.getVerifier();
+        if (key.isPublic() && "RSA".equals(key.getType())) {
+            SignatureVerifier verifier = key.getVerifier();
             if (verifier!=null && verifier instanceof RsaVerifier) {
                 RSAPublicKey rsaKey = extractRsaPublicKey((RsaVerifier) verifier) ;
                 if (rsaKey!=null) {
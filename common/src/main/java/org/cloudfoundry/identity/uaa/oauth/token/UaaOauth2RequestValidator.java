@@ -15,9 +15,9 @@ package org.cloudfoundry.identity.uaa.oauth.token;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Pattern;
 
-import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
+import org.cloudfoundry.identity.uaa.util.ScopeMatcher;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.oauth2.common.exceptions.InvalidScopeException;
 import org.springframework.security.oauth2.common.util.OAuth2Utils;
@@ -30,33 +30,50 @@ public class UaaOauth2RequestValidator implements OAuth2RequestValidator {
 
     private static String CLIENT_CREDENTIALS = "client_credentials";
 
+    /**
+     * The matcher of the scopes of each client, which is used for as long as
+     * the client keeps the same scopes
+     */
+    private ExpiringLruCache<String, ScopeMatcher> clientMatchers = new ExpiringLruCache<String, ScopeMatcher>(1000,
+                    24 * 3600 * 1000L);
+
+    /**
+     * @param maxCachedClients the number of clients whose scope matchers are
+     *            kept, zero to build them on every request
+     */
+    public void setMaxCachedClients(int maxCachedClients) {
+        this.clientMatchers = maxCachedClients > 0 ? new ExpiringLruCache<String, ScopeMatcher>(maxCachedClients,
+                        24 * 3600 * 1000L) : null;
+    }
+
     public void validateScope(AuthorizationRequest authorizationRequest, ClientDetails client) throws InvalidScopeException {
         if (CLIENT_CREDENTIALS.equalsIgnoreCase(authorizationRequest.getRequestParameters().get(OAuth2Utils.GRANT_TYPE))) {
-            validateScope(authorizationRequest.getScope(), getAuthorities(client.getAuthorities()), false);
+            validateScope(authorizationRequest.getScope(), getAuthorities(client.getAuthorities()), null, false);
         } else {
-            validateScope(authorizationRequest.getScope(), client.getScope(), true);
+            validateScope(authorizationRequest.getScope(), client.getScope(), client.getClientId(), true);
         }
 
     }
 
     public void validateScope(TokenRequest tokenRequest, ClientDetails client) throws InvalidScopeException {
         if (CLIENT_CREDENTIALS.equalsIgnoreCase(tokenRequest.getGrantType())) {
-            validateScope(tokenRequest.getScope(), getAuthorities(client.getAuthorities()), false);
+            validateScope(tokenRequest.getScope(), getAuthorities(client.getAuthorities()), null, false);
         } else {
-            validateScope(tokenRequest.getScope(), client.getScope(), true);
+            validateScope(tokenRequest.getScope(), client.getScope(), client.getClientId(), true);
         }
     }
 
-    private void validateScope(Set<String> requestScopes, Set<String> clientScopes, boolean wildCardsAllowed) {
+    private void validateScope(Set<String> requestScopes, Set<String> clientScopes, String clientId,
+                    boolean wildCardsAllowed) {
 
         if (clientScopes == null || clientScopes.isEmpty()) {
             throw new InvalidScopeException("Empty scope (client has no registered scopes)");
         }
 
         if (wildCardsAllowed) {
-            Set<Pattern> wildcards = UaaStringUtils.constructWildcards(clientScopes);
+            ScopeMatcher wildcards = getMatcher(clientId, clientScopes);
             for (String scope : requestScopes) {
-                if (!UaaStringUtils.matches(wildcards, scope)) {
+                if (!wildcards.matches(scope)) {
                     throw new InvalidScopeException("Invalid scope: " + scope, clientScopes);
                 }
             }
@@ -70,6 +87,23 @@ public class UaaOauth2RequestValidator implements OAuth2RequestValidator {
 
     }
 
+    /**
+     * The matcher of the scopes of a client, built again only when they are
+     * not the ones it was built from.
+     */
+    private ScopeMatcher getMatcher(String clientId, Set<String> scopes) {
+        ExpiringLruCache<String, ScopeMatcher> matchers = clientMatchers;
+        if (matchers == null || clientId == null) {
+            return ScopeMatcher.of(scopes);
+        }
+        ScopeMatcher matcher = matchers.get(clientId);
+        if (matcher == null || !matcher.isFor(scopes)) {
+            matcher = ScopeMatcher.of(scopes);
+            matchers.put(clientId, matcher);
+        }
+        return matcher;
+    }
+
     private Set<String> getAuthorities(Collection<GrantedAuthority> authorities) {
         Set<String> result = new HashSet<>();
         for (GrantedAuthority authority : authorities) {
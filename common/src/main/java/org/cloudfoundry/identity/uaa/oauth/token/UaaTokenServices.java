@@ -35,7 +35,6 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.jwt.Jwt;
-import org.springframework.security.jwt.JwtHelper;
 import org.springframework.security.oauth2.client.resource.OAuth2AccessDeniedException;
 import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
 import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
@@ -123,6 +122,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
     private ApplicationEventPublisher applicationEventPublisher;
 
+    private VerifiedTokenCache tokenCache = new VerifiedTokenCache();
+
     @Override
     public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
         this.applicationEventPublisher = applicationEventPublisher;
@@ -296,19 +297,14 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         }
         accessToken.setAdditionalInformation(info);
 
-        String content;
-        try {
-            content = mapper.writeValueAsString(createJWTAccessToken(accessToken, userId, username, userEmail,
-                            clientScopes, requestedScopes, clientId, resourceIds, grantType, refreshToken));
-        } catch (Exception e) {
-            throw new IllegalStateException("Cannot convert access token to JSON", e);
-        }
-        String token = JwtHelper.encode(content, signerProvider.getSigner()).getEncoded();
+        Map<String, ?> claims = createJWTAccessToken(accessToken, userId, username, userEmail, clientScopes,
+                        requestedScopes, clientId, resourceIds, grantType, refreshToken);
+        String token = signerProvider.getTokenWriter().write(claims);
 
         // This setter copies the value and returns. Don't change.
         accessToken.setValue(token);
         populateIdToken(accessToken, requestedScopes, responseTypes);
-        publish(new TokenIssuedEvent(accessToken, SecurityContextHolder.getContext().getAuthentication()));
+        publish(new TokenIssuedEvent(accessToken, SecurityContextHolder.getContext().getAuthentication(), claims));
 
         return accessToken;
     }
@@ -489,19 +485,13 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         String userId = getUserId(authentication);
         UaaUser user = userDatabase.retrieveUserById(userId);
 
-        String content;
-        try {
-            content = mapper.writeValueAsString(
-                createJWTRefreshToken(
-                    token, user, authentication.getOAuth2Request().getScope(),
-                    authentication.getOAuth2Request().getClientId(),
-                    grantType, additionalAuthorizationAttributes,authentication.getOAuth2Request().getResourceIds()
-                )
-            );
-        } catch (Exception e) {
-            throw new IllegalStateException("Cannot convert access token to JSON", e);
-        }
-        String jwtToken = JwtHelper.encode(content, signerProvider.getSigner()).getEncoded();
+        String jwtToken = signerProvider.getTokenWriter().write(
+            createJWTRefreshToken(
+                token, user, authentication.getOAuth2Request().getScope(),
+                authentication.getOAuth2Request().getClientId(),
+                grantType, additionalAuthorizationAttributes,authentication.getOAuth2Request().getResourceIds()
+            )
+        );
 
         ExpiringOAuth2RefreshToken refreshToken = new DefaultExpiringOAuth2RefreshToken(jwtToken, token.getExpiration());
 
@@ -607,7 +597,28 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
     @Override
     public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
-        Map<String, Object> claims = getClaimsForToken(accessToken);
+        VerifiedToken verifiedToken = tokenCache.get(accessToken);
+        if (verifiedToken != null) {
+            // the cache only returns tokens that were validated and have not
+            // expired, but the clients may have been deleted since
+            Map<String, Object> claims = verifiedToken.getClaims();
+            validateClient((String) claims.get(CLIENT_ID));
+            validateClient((String) claims.get(CID));
+            return createAuthentication(claims);
+        }
+        verifiedToken = verifyToken(accessToken);
+        OAuth2Authentication authentication = loadAuthentication(verifiedToken);
+        tokenCache.put(verifiedToken);
+        return authentication;
+    }
+
+    /**
+     * Same as {@link #loadAuthentication(String)} for a token that has already
+     * been decoded and verified.
+     */
+    public OAuth2Authentication loadAuthentication(VerifiedToken verifiedToken) throws AuthenticationException {
+        String accessToken = verifiedToken.getValue();
+        Map<String, Object> claims = verifiedToken.getClaims();
 
         // Check token expiry
         Integer expiration = (Integer) claims.get(EXP);
@@ -620,6 +631,10 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         validateClient((String) claims.get(CLIENT_ID));
         validateClient((String)claims.get(CID));
 
+        return createAuthentication(claims);
+    }
+
+    private OAuth2Authentication createAuthentication(Map<String, Object> claims) {
 
         @SuppressWarnings("unchecked")
         ArrayList<String> scopes = (ArrayList<String>) claims.get(SCOPE);
@@ -672,7 +687,16 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
      */
     @Override
     public OAuth2AccessToken readAccessToken(String accessToken) {
-        Map<String, Object> claims = getClaimsForToken(accessToken);
+        return readAccessToken(verifyToken(accessToken));
+    }
+
+    /**
+     * Same as {@link #readAccessToken(String)} for a token that has already
+     * been decoded and verified.
+     */
+    public OAuth2AccessToken readAccessToken(VerifiedToken verifiedToken) {
+        String accessToken = verifiedToken.getValue();
+        Map<String, Object> claims = verifiedToken.getClaims();
 
         // Expiry is verified by check_token
         OpenIdToken token = new OpenIdToken(accessToken);
@@ -747,9 +771,24 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
     }
 
     private Map<String, Object> getClaimsForToken(String token) {
+        return verifyToken(token).getClaims();
+    }
+
+    /**
+     * Decodes the token, verifies its signature and issuer and parses its
+     * claims. The result can be passed to
+     * {@link #readAccessToken(VerifiedToken)} and
+     * {@link #loadAuthentication(VerifiedToken)} so that a caller needing both
+     * only decodes the token once.
+     *
+     * @param token the encoded token value
+     * @return the verified token and its claims
+     * @throws InvalidTokenException if the token cannot be decoded or verified
+     */
+    public VerifiedToken verifyToken(String token) {
         Jwt tokenJwt = null;
         try {
-            tokenJwt = JwtHelper.decodeAndVerify(token, signerProvider.getVerifier());
+            tokenJwt = signerProvider.decodeAndVerify(token);
         } catch (Throwable t) {
             logger.debug("Invalid token (could not decode)");
             throw new InvalidTokenException("Invalid token (could not decode): " + token);
@@ -767,7 +806,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
             throw new InvalidTokenException("Invalid issuer for token:"+claims.get(ISS));
         }
 
-        return claims;
+        return new VerifiedToken(token, claims);
     }
 
     /**
@@ -808,6 +847,14 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         this.approvalStore = approvalStore;
     }
 
+    /**
+     * @param tokenCache the cache of access tokens already validated by
+     *            {@link #loadAuthentication(String)} (disabled by default)
+     */
+    public void setTokenCache(VerifiedTokenCache tokenCache) {
+        this.tokenCache = tokenCache;
+    }
+
     private void publish(TokenIssuedEvent event) {
         if (applicationEventPublisher != null) {
             applicationEventPublisher.publishEvent(event);
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.springframework.security.jwt.codec.Codecs;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.util.Assert;
+
+/**
+ * A key that token signatures are verified with, together with its verifier,
+ * which is parsed from the key once.
+ */
+public class VerificationKey {
+
+    private static final ObjectReader headerReader = new ObjectMapper().reader(Map.class);
+
+    private final String keyId;
+
+    private final String value;
+
+    private final SignatureVerifier verifier;
+
+    /**
+     * @param keyId the id tokens signed with the key carry in their
+     *            <code>kid</code> header, or null
+     * @param value an RSA public key, or the secret of a MAC key
+     */
+    public VerificationKey(String keyId, String value) {
+        this(keyId, value, isPublic(value) ? new RsaVerifier(value) : new MacSigner(value));
+    }
+
+    VerificationKey(String keyId, String value, SignatureVerifier verifier) {
+        Assert.hasText(value, "value must not be empty");
+        this.keyId = keyId;
+        this.value = value;
+        this.verifier = verifier;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public SignatureVerifier getVerifier() {
+        return verifier;
+    }
+
+    public String getAlgorithm() {
+        return verifier.algorithm();
+    }
+
+    /**
+     * @return "RSA" or "MAC"
+     */
+    public String getType() {
+        return verifier instanceof RsaVerifier ? "RSA" : "MAC";
+    }
+
+    /**
+     * @return true if the key can be shown to anyone, false if it is a shared
+     *         secret
+     */
+    public boolean isPublic() {
+        return isPublic(value);
+    }
+
+    /**
+     * @param token an encoded JWT
+     * @return the <code>kid</code> header of the token, or null if it has none
+     * @throws IllegalArgumentException if the header cannot be read
+     */
+    public static String getKeyId(String token) {
+        Map<?, ?> header;
+        try {
+            header = headerReader.readValue(Codecs.b64UrlDecode(token.substring(0, token.indexOf('.'))));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot read token header", e);
+        }
+        Object kid = header.get("kid");
+        return kid instanceof String ? (String) kid : null;
+    }
+
+    private static boolean isPublic(String value) {
+        return value != null && value.startsWith("-----BEGIN");
+    }
+}
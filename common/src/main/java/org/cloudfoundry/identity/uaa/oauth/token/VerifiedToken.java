@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import static org.cloudfoundry.identity.uaa.oauth.Claims.EXP;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A JWT token value whose signature and issuer have been checked, together
+ * with its parsed claims. Lets a caller decode a token once and run the
+ * remaining validations against the same claims.
+ *
+ */
+public class VerifiedToken {
+
+    private final String value;
+
+    private final Map<String, Object> claims;
+
+    public VerifiedToken(String value, Map<String, Object> claims) {
+        this.value = value;
+        this.claims = Collections.unmodifiableMap(claims);
+    }
+
+    /**
+     * @return the encoded token value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the (read only) claims of the token
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+
+    /**
+     * @return the expiry of the token in seconds since the epoch, or null if
+     *         the token does not expire
+     */
+    public Integer getExpiresAt() {
+        return (Integer) claims.get(EXP);
+    }
+
+}
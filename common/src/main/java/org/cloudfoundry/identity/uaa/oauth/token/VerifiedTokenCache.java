@@ -0,0 +1,122 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.crypto.codec.Utf8;
+
+/**
+ * Remembers access tokens that have already passed
+ * {@link UaaTokenServices#loadAuthentication(String)} so that a resource
+ * server presenting the same token again skips the signature check and the
+ * parsing of the claims. The clients of a cached token are still checked, so
+ * the tokens of a deleted client are rejected straight away.
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the token value and are kept
+ * until the token expires or for <code>timeToLiveSeconds</code>, whichever
+ * comes first. Rotating the signing key therefore takes up to
+ * <code>timeToLiveSeconds</code> to affect a token that is cached. The cache
+ * is disabled by default.
+ */
+@ManagedResource
+public class VerifiedTokenCache {
+
+    private final ExpiringLruCache<String, VerifiedToken> cache;
+
+    private boolean enabled = false;
+
+    public VerifiedTokenCache() {
+        this(10000, 60);
+    }
+
+    public VerifiedTokenCache(int maxEntries, int timeToLiveSeconds) {
+        this.cache = new ExpiringLruCache<String, VerifiedToken>(maxEntries, timeToLiveSeconds * 1000L);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @param token an encoded token value
+     * @return the verified token if it is cached and still valid, else null
+     */
+    public VerifiedToken get(String token) {
+        if (!enabled) {
+            return null;
+        }
+        VerifiedToken result = cache.get(digest(token));
+        if (result != null && !result.getValue().equals(token)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Caches a token that has been verified and validated.
+     */
+    public void put(VerifiedToken token) {
+        if (!enabled) {
+            return;
+        }
+        Integer expiresAt = token.getExpiresAt();
+        cache.put(digest(token.getValue()), token, expiresAt == null ? Long.MAX_VALUE : expiresAt * 1000L);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Verified Token Cache Hits")
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Verified Token Cache Misses")
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Verified Token Cache Evictions")
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Verified Token Cache Size")
+    public int getSize() {
+        return cache.size();
+    }
+
+    private String digest(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new String(Hex.encode(digest.digest(Utf8.encode(token))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -89,7 +89,15 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
             String completeSql = getQuerySQL(filter, where);
             logger.debug("complete sql: " + completeSql + ", params: " + where.getParams());
             if (pageSize > 0 && pageSize < Integer.MAX_VALUE) {
-                result = pagingListFactory.createJdbcPagingList(completeSql, where.getParams(), rowMapper, pageSize);
+                String[] keyColumns = getKeyColumns();
+                if (keyColumns != null) {
+                    result = pagingListFactory.createJdbcPagingList(completeSql, where.getParams(), rowMapper,
+                                    pageSize, keyColumns);
+                }
+                else {
+                    result = pagingListFactory.createJdbcPagingList(completeSql, where.getParams(), rowMapper,
+                                    pageSize);
+                }
             }
             else {
                 result = jdbcTemplate.query(completeSql, where.getParams(), rowMapper);
@@ -110,4 +118,12 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
     protected abstract String getBaseSqlQuery();
     protected abstract String getTableName();
 
+    /**
+     * The columns that identify a row of the table, which allow results to be
+     * paged by key. Null (the default) if results are only paged by offset.
+     */
+    protected String[] getKeyColumns() {
+        return null;
+    }
+
 }
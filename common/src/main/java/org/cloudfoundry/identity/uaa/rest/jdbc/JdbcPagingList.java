@@ -13,12 +13,18 @@
 
 package org.cloudfoundry.identity.uaa.rest.jdbc;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -31,6 +37,14 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
  * </p>
  * 
  * <p>
+ * By default pages are fetched with an offset and the size is counted up
+ * front. With {@link KeysetPaging} the rows are ordered by the sort column (if
+ * any) and then the key columns, a page that follows one already fetched is
+ * found by seeking past its last row, and the size is only counted when it is
+ * needed and not already known from reaching the end of the rows.
+ * </p>
+ * 
+ * <p>
  * Not thread safe.
  * </p>
  * 
@@ -39,7 +53,15 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
  */
 public class JdbcPagingList<E> extends AbstractList<E> {
 
-    private final int size;
+    private static final Pattern SELECT_FROM = Pattern.compile("(?is)select (.*?) from (.*)");
+
+    private static final Pattern ORDER_BY = Pattern.compile("(?is)(.*?)\\s+order\\s+by\\s+([\\w.]+)(?:\\s+(asc|desc))?\\s*");
+
+    private static final Pattern WHERE = Pattern.compile("(?i)\\swhere\\s");
+
+    private static final String KEY_PARAM = "__keyset_value_";
+
+    private int size = -1;
 
     private int start = 0;
 
@@ -57,6 +79,28 @@ public class JdbcPagingList<E> extends AbstractList<E> {
 
     private final LimitSqlAdapter limitSqlAdapter;
 
+    private KeysetPaging keyset;
+
+    private String[] orderColumns;
+
+    private String[] orderLabels;
+
+    private boolean ascending = true;
+
+    private boolean sortedByValue;
+
+    private String orderedSql;
+
+    private String seekPrefix;
+
+    private String seekSuffix = "";
+
+    private String orderBySql;
+
+    private int lastKeyIndex = -1;
+
+    private Object[] lastKey;
+
     public JdbcPagingList(JdbcTemplate jdbTemplate, LimitSqlAdapter limitSqlAdapter, String sql, RowMapper<E> mapper,
                     int pageSize) {
         this(jdbTemplate, limitSqlAdapter, sql, Collections.<String, Object> emptyMap(), mapper, pageSize);
@@ -78,8 +122,69 @@ public class JdbcPagingList<E> extends AbstractList<E> {
         this.limitSqlAdapter = limitSqlAdapter;
     }
 
+    /**
+     * Create a list that pages with the keyset provided. The query may end
+     * with an <code>ORDER BY</code> of a single column; if it is more complex
+     * than that, pages are fetched with an offset as usual.
+     */
+    public JdbcPagingList(NamedParameterJdbcTemplate jdbcTemplate, LimitSqlAdapter limitSqlAdapter, String sql,
+                    Map<String, ?> args, RowMapper<E> mapper, int pageSize, KeysetPaging keyset) {
+        this.parameterJdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.args = args;
+        this.mapper = mapper;
+        this.pageSize = pageSize;
+        this.limitSqlAdapter = limitSqlAdapter;
+        initializeKeyset(keyset);
+    }
+
+    private void initializeKeyset(KeysetPaging keyset) {
+        String body = sql;
+        String sortColumn = null;
+        Matcher matcher = ORDER_BY.matcher(sql);
+        if (matcher.matches()) {
+            body = matcher.group(1);
+            sortColumn = matcher.group(2);
+            ascending = !"desc".equalsIgnoreCase(matcher.group(3));
+        } else if (sql.toLowerCase().contains("order by")) {
+            this.size = parameterJdbcTemplate.queryForObject(getCountSql(sql), args, Integer.class);
+            return;
+        }
+        List<String> columns = new ArrayList<String>();
+        for (String column : keyset.getKeyColumns()) {
+            if (!column.equalsIgnoreCase(sortColumn)) {
+                columns.add(column);
+            }
+        }
+        if (sortColumn != null) {
+            sortedByValue = columns.size() == keyset.getKeyColumns().length;
+            columns.add(0, sortColumn);
+        }
+        this.keyset = keyset;
+        this.orderColumns = columns.toArray(new String[columns.size()]);
+        this.orderLabels = new String[orderColumns.length];
+        StringBuilder orderBy = new StringBuilder(" order by ");
+        for (int i = 0; i < orderColumns.length; i++) {
+            orderLabels[i] = orderColumns[i].substring(orderColumns[i].lastIndexOf('.') + 1);
+            orderBy.append(i > 0 ? ", " : "").append(orderColumns[i]).append(ascending ? " asc" : " desc");
+        }
+        this.orderBySql = orderBy.toString();
+        this.orderedSql = body + orderBySql;
+        Matcher where = WHERE.matcher(body);
+        if (where.find()) {
+            // the seek goes first as some databases only use an index for the first condition
+            this.seekPrefix = body.substring(0, where.end());
+            this.seekSuffix = " and (" + body.substring(where.end()) + ")";
+        } else {
+            this.seekPrefix = body + " where ";
+        }
+    }
+
     @Override
     public E get(int index) {
+        if (keyset != null) {
+            return getWithKeyset(index);
+        }
         if (index >= size) {
             throw new ArrayIndexOutOfBoundsException(index);
         }
@@ -90,6 +195,94 @@ public class JdbcPagingList<E> extends AbstractList<E> {
         return current.get(index - start);
     }
 
+    private E getWithKeyset(int index) {
+        if (index < 0 || (size >= 0 && index >= size)) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (current == null || index - start >= current.size() || index < start) {
+            current = fetch(index);
+            start = index;
+            if (current.isEmpty()) {
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+        }
+        return current.get(index - start);
+    }
+
+    private List<E> fetch(int index) {
+        Object[] after = null;
+        if (index > 0) {
+            after = index - 1 == lastKeyIndex ? lastKey : null;
+        }
+        String pageSql;
+        Map<String, Object> pageArgs = new HashMap<String, Object>(args);
+        if (after == null) {
+            pageSql = limitSqlAdapter.getLimitSql(orderedSql, index, pageSize);
+        } else {
+            pageSql = limitSqlAdapter.getLimitSql(seekPrefix + getSeekCondition(after, pageArgs) + seekSuffix + orderBySql, 0,
+                            pageSize);
+        }
+        final List<Object[]> keys = new ArrayList<Object[]>();
+        List<E> page = parameterJdbcTemplate.query(pageSql, pageArgs, new RowMapper<E>() {
+            @Override
+            public E mapRow(ResultSet rs, int rowNum) throws SQLException {
+                Object[] key = new Object[orderLabels.length];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getObject(orderLabels[i]);
+                }
+                keys.add(key);
+                return mapper.mapRow(rs, rowNum);
+            }
+        });
+        if (!page.isEmpty()) {
+            lastKeyIndex = index + page.size() - 1;
+            lastKey = keys.get(keys.size() - 1);
+        }
+        if (page.size() < pageSize) {
+            // the end of the rows, so the size is known exactly
+            size = index + page.size();
+        }
+        return page;
+    }
+
+    /**
+     * The condition for rows that come after the given key in the order of
+     * this list. Only a sort column that is not a key column may be null, and
+     * where null values go depends on the database and the sort direction.
+     */
+    private String getSeekCondition(Object[] key, Map<String, Object> params) {
+        for (int i = 0; i < key.length; i++) {
+            params.put(KEY_PARAM + i, key[i]);
+        }
+        if (!sortedByValue) {
+            return getAfterCondition(0);
+        }
+        boolean nullsAfter = keyset.isNullsAfter(ascending);
+        String first = orderColumns[0];
+        if (key[0] == null) {
+            String rest = getAfterCondition(1);
+            return nullsAfter ? "(" + first + " is null and " + rest + ")"
+                            : "(" + first + " is not null or (" + first + " is null and " + rest + "))";
+        }
+        String condition = getAfterCondition(0);
+        return nullsAfter ? "(" + condition + " or " + first + " is null)" : condition;
+    }
+
+    private String getAfterCondition(int from) {
+        String comparator = ascending ? " > :" : " < :";
+        // the redundant range on the first column is what an index can be used for
+        StringBuilder condition = new StringBuilder("(").append(orderColumns[from])
+                        .append(ascending ? " >= :" : " <= :").append(KEY_PARAM).append(from).append(" and (");
+        for (int i = from; i < orderColumns.length; i++) {
+            condition.append(i > from ? " or (" : "(");
+            for (int j = from; j < i; j++) {
+                condition.append(orderColumns[j]).append(" = :").append(KEY_PARAM).append(j).append(" and ");
+            }
+            condition.append(orderColumns[i]).append(comparator).append(KEY_PARAM).append(i).append(")");
+        }
+        return condition.append("))").toString();
+    }
+
     @Override
     public Iterator<E> iterator() {
         return new SafeIterator<E>(super.iterator());
@@ -97,22 +290,26 @@ public class JdbcPagingList<E> extends AbstractList<E> {
 
     @Override
     public List<E> subList(int fromIndex, int toIndex) {
-        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
             throw new IndexOutOfBoundsException("The indexes provided are outside the bounds of this list.");
         }
         return new SafeIteratorList<E>(super.subList(fromIndex, toIndex));
     }
 
     private String getCountSql(String sql) {
-        String result = sql.toLowerCase().replaceAll("select (.*?) from (.*)", "select count(*) from $2");
-        if (result.contains("order by")) {
-            result = result.substring(0, result.lastIndexOf("order by"));
+        String result = SELECT_FROM.matcher(sql).replaceFirst("select count(*) from $2");
+        int orderBy = result.toLowerCase().lastIndexOf("order by");
+        if (orderBy >= 0) {
+            result = result.substring(0, orderBy);
         }
         return result;
     }
 
     @Override
     public int size() {
+        if (size < 0) {
+            size = parameterJdbcTemplate.queryForObject(getCountSql(sql), args, Integer.class);
+        }
         return this.size;
     }
 
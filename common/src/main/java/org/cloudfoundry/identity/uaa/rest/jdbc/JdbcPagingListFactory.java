@@ -15,6 +15,7 @@ package org.cloudfoundry.identity.uaa.rest.jdbc;
 import java.util.List;
 import java.util.Map;
 
+import org.cloudfoundry.identity.uaa.rest.jdbc.KeysetPaging.NullOrdering;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -29,13 +30,45 @@ public class JdbcPagingListFactory {
 
     private NamedParameterJdbcTemplate jdbcTemplate;
     private LimitSqlAdapter limitSqlAdapter;
+    private boolean keysetPaging = false;
+    private NullOrdering nullOrdering = NullOrdering.FIRST;
 
     public JdbcPagingListFactory(JdbcTemplate jdbcTemplate, LimitSqlAdapter limitSqlAdapter) {
         this.jdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
         this.limitSqlAdapter = limitSqlAdapter;
     }
 
+    /**
+     * @param keysetPaging true to page queries that have key columns with
+     *            {@link KeysetPaging} (default false)
+     */
+    public void setKeysetPaging(boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+    }
+
+    /**
+     * @param nullOrdering where the database sorts null values (default
+     *            {@link NullOrdering#FIRST})
+     */
+    public void setNullOrdering(NullOrdering nullOrdering) {
+        this.nullOrdering = nullOrdering;
+    }
+
     public <T> List<T> createJdbcPagingList(String sql, Map<String, ?> args, RowMapper<T> mapper, int pageSize) {
         return new JdbcPagingList<T>(jdbcTemplate, limitSqlAdapter, sql, args, mapper, pageSize);
     }
+
+    /**
+     * Create a list for a query on a table with the key columns provided,
+     * paging it by key if keyset paging is enabled.
+     */
+    public <T> List<T> createJdbcPagingList(String sql, Map<String, ?> args, RowMapper<T> mapper, int pageSize,
+                    String... keyColumns) {
+        if (!keysetPaging) {
+            return createJdbcPagingList(sql, args, mapper, pageSize);
+        }
+        KeysetPaging keyset = new KeysetPaging(keyColumns);
+        keyset.setNullOrdering(nullOrdering);
+        return new JdbcPagingList<T>(jdbcTemplate, limitSqlAdapter, sql, args, mapper, pageSize, keyset);
+    }
 }
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+import org.springframework.util.Assert;
+
+/**
+ * Settings for a {@link JdbcPagingList} that fetches pages after the first by
+ * seeking past the last row it has seen (keyset pagination) instead of with an
+ * offset.
+ * <p>
+ * The key columns must be in the select list, never be null and together
+ * identify a row. Only the list itself remembers where its pages end, so
+ * rows inserted or deleted by the time another list is created for the same
+ * query are always taken into account.
+ */
+public class KeysetPaging {
+
+    /**
+     * Where a database sorts null values.
+     */
+    public enum NullOrdering {
+        /** Before all other values in both directions (e.g. HSQLDB) */
+        FIRST,
+        /** After all other values in both directions */
+        LAST,
+        /** As if lower than any other value (e.g. MySQL) */
+        LOW,
+        /** As if higher than any other value (e.g. PostgreSQL and Oracle) */
+        HIGH
+    }
+
+    private final String[] keyColumns;
+
+    private NullOrdering nullOrdering = NullOrdering.FIRST;
+
+    public KeysetPaging(String... keyColumns) {
+        Assert.notEmpty(keyColumns, "keyColumns must not be empty");
+        this.keyColumns = keyColumns;
+    }
+
+    public String[] getKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * @param nullOrdering where the database sorts null values (default
+     *            {@link NullOrdering#FIRST})
+     */
+    public void setNullOrdering(NullOrdering nullOrdering) {
+        this.nullOrdering = nullOrdering;
+    }
+
+    /**
+     * @return true if null values come after all others in the direction
+     *         given
+     */
+    public boolean isNullsAfter(boolean ascending) {
+        switch (nullOrdering) {
+            case LAST:
+                return true;
+            case LOW:
+                return !ascending;
+            case HIGH:
+                return ascending;
+            default:
+                return false;
+        }
+    }
+}
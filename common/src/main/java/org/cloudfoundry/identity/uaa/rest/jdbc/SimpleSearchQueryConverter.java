@@ -14,11 +14,17 @@
 package org.cloudfoundry.identity.uaa.rest.jdbc;
 
 import java.text.DateFormat;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.unboundid.scim.sdk.SCIMException;
 import com.unboundid.scim.sdk.SCIMFilter;
@@ -26,16 +32,63 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.rest.AttributeNameMapper;
 import org.cloudfoundry.identity.uaa.rest.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.util.StringUtils;
 
 public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
+    private static final String DEFAULT_PARAM_PREFIX = "__value_";
+
+    private static final long PLAN_TIME_TO_LIVE = 3600 * 1000;
+
+    private static final ThreadLocal<DateFormat> timestampFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        }
+    };
+
     private static Log logger = LogFactory.getLog(SimpleSearchQueryConverter.class);
     private AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.<String, String> emptyMap());
 
+    private Set<String> exactMatchAttributes = Collections.emptySet();
+
+    private volatile ExpiringLruCache<String, Plan> plans = new ExpiringLruCache<String, Plan>(1000, PLAN_TIME_TO_LIVE);
+
     public void setAttributeNameMapper(AttributeNameMapper mapper) {
         this.mapper = mapper;
+        if (plans != null) {
+            plans.clear();
+        }
+    }
+
+    /**
+     * @param attributes the (internal) attributes whose values are matched
+     *            exactly, such as ids, client ids and origins. Quoted values
+     *            are compared to these as given, so that their indexes can be
+     *            used, instead of converting both sides to lower case. The
+     *            comparison is then only case insensitive where the collation
+     *            of the database is (e.g. MySQL, but not PostgreSQL).
+     */
+    public void setExactMatchAttributes(Collection<String> attributes) {
+        Set<String> names = new HashSet<String>();
+        for (String attribute : attributes) {
+            names.add(attribute.toLowerCase());
+        }
+        this.exactMatchAttributes = names;
+        if (plans != null) {
+            plans.clear();
+        }
+    }
+
+    /**
+     * @param maxCachedPlans the number of filter shapes (filters that differ
+     *            only in their quoted values) to remember the SQL for, or 0
+     *            to convert every filter from scratch (default 1000)
+     */
+    public void setMaxCachedPlans(int maxCachedPlans) {
+        plans = maxCachedPlans > 0 ? new ExpiringLruCache<String, Plan>(maxCachedPlans, PLAN_TIME_TO_LIVE) : null;
     }
 
     @Override
@@ -45,7 +98,29 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
     @Override
     public ProcessedFilter convert(String filter, String sortBy, boolean ascending, AttributeNameMapper mapper) {
-        String paramPrefix = generateParameterPrefix(filter);
+        ExpiringLruCache<String, Plan> plans = this.plans;
+        if (plans != null && mapper == this.mapper && StringUtils.hasText(filter)) {
+            List<Object> literals = new ArrayList<Object>();
+            String shape = getShape(filter, literals);
+            if (shape != null && !filter.contains(DEFAULT_PARAM_PREFIX)) {
+                String key = shape + "\n" + sortBy + "\n" + ascending;
+                Plan plan = plans.get(key);
+                if (plan != null) {
+                    return plan.bind(literals);
+                }
+                ProcessedFilter pf = convert(filter, sortBy, ascending, mapper, DEFAULT_PARAM_PREFIX);
+                plan = compile(filter, literals, pf);
+                if (plan != null) {
+                    plans.put(key, plan);
+                }
+                return pf;
+            }
+        }
+        return convert(filter, sortBy, ascending, mapper, generateParameterPrefix(filter));
+    }
+
+    private ProcessedFilter convert(String filter, String sortBy, boolean ascending, AttributeNameMapper mapper,
+                    String paramPrefix) {
         Map<String, Object> values = new HashMap<String, Object>();
         String where = StringUtils.hasText(filter) ? getWhereClause(filter, sortBy, ascending, values, mapper, paramPrefix) : null;
         ProcessedFilter pf = new ProcessedFilter(where, values);
@@ -54,6 +129,9 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
     }
 
     protected String generateParameterPrefix(String filter) {
+        if (!filter.contains(DEFAULT_PARAM_PREFIX)) {
+            return DEFAULT_PARAM_PREFIX;
+        }
         while (true) {
             String s = new RandomValueStringGenerator().generate().toLowerCase();
             if (!filter.contains(s)) {
@@ -62,6 +140,95 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         }
     }
 
+    /**
+     * @return the filter with each quoted value replaced by a marker for its
+     *         type, or null if the filter has values that are not simple
+     *         double quoted strings (escapes or legacy single quotes)
+     */
+    private String getShape(String filter, List<Object> literals) {
+        StringBuilder shape = new StringBuilder(filter.length());
+        int from = 0;
+        while (from < filter.length()) {
+            int open = filter.indexOf('"', from);
+            int end = open < 0 ? filter.length() : open;
+            int apostrophe = filter.indexOf('\'', from);
+            if (apostrophe >= 0 && apostrophe < end) {
+                return null;
+            }
+            shape.append(filter, from, end);
+            if (open < 0) {
+                break;
+            }
+            int close = filter.indexOf('"', open + 1);
+            int backslash = filter.indexOf('\\', open + 1);
+            if (close < 0 || (backslash >= 0 && backslash < close)) {
+                return null;
+            }
+            Object literal = getStringOrDate(filter.substring(open + 1, close));
+            literals.add(literal);
+            shape.append(literal instanceof String ? "\"S\"" : "\"D\"");
+            from = close + 1;
+        }
+        return shape.toString();
+    }
+
+    /**
+     * @return a plan that turns the quoted values of a filter with the same
+     *         shape into the parameters of the converted filter, or null if
+     *         the filter cannot be converted that way
+     */
+    private Plan compile(String filter, List<Object> literals, ProcessedFilter converted) {
+        List<Slot> slots = new ArrayList<Slot>();
+        try {
+            int used = addSlots(scimFilter(filter), slots, 0, converted.getParams());
+            if (used != literals.size()) {
+                return null;
+            }
+        } catch (SCIMException e) {
+            return null;
+        }
+        Plan plan = new Plan(converted.getSql(), slots);
+        // only trust the plan if it gives the same answer as the full conversion
+        return plan.bind(literals).getParams().equals(converted.getParams()) ? plan : null;
+    }
+
+    /**
+     * Adds a slot for each parameter of the filter in the order that
+     * {@link #createFilter} adds them.
+     *
+     * @return the number of quoted values used so far
+     */
+    private int addSlots(SCIMFilter filter, List<Slot> slots, int literal, Map<String, Object> values) {
+        switch (filter.getFilterType()) {
+            case AND:
+            case OR:
+                literal = addSlots(filter.getFilterComponents().get(0), slots, literal, values);
+                return addSlots(filter.getFilterComponents().get(1), slots, literal, values);
+            case PRESENCE:
+                return literal;
+            default:
+                if (filter.getFilterValue() == null) {
+                    return literal;
+                }
+                if (!filter.isQuoteFilterValue()) {
+                    slots.add(new Slot(-1, values.get(DEFAULT_PARAM_PREFIX + slots.size()), "", ""));
+                    return literal;
+                }
+                switch (filter.getFilterType()) {
+                    case CONTAINS:
+                        slots.add(new Slot(literal, null, "%", "%"));
+                        break;
+                    case STARTS_WITH:
+                        slots.add(new Slot(literal, null, "", "%"));
+                        break;
+                    default:
+                        slots.add(new Slot(literal, null, "", ""));
+                        break;
+                }
+                return literal + 1;
+        }
+    }
+
     private String getWhereClause(String filter, String sortBy, boolean ascending, Map<String, Object> values, AttributeNameMapper mapper, String paramPrefix) {
 
         try {
@@ -126,9 +293,12 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         } else if (filter.isQuoteFilterValue()) {
             Object value = getStringOrDate(filter.getFilterValue());
             if (value instanceof String) {
-                //TODO - why lower?
                 values.put(pName, valuePrefix+value+valueSuffix);
-                return "LOWER(" + getAttributeName(filter, mapper) + ") "+comparator+" LOWER(" + paramName+")";
+                String attributeName = getAttributeName(filter, mapper);
+                if (exactMatchAttributes.contains(attributeName.toLowerCase())) {
+                    return attributeName + " " + comparator + " " + paramName;
+                }
+                return "LOWER(" + attributeName + ") "+comparator+" LOWER(" + paramName+")";
             } else {
                 values.put(pName, value);
                 return getAttributeName(filter, mapper) + " "+comparator+" " + paramName;
@@ -165,14 +335,67 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
     }
 
     protected Object getStringOrDate(String s) {
-        try {
-            DateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-            return TIMESTAMP_FORMAT.parse(s);
-        } catch (ParseException x) {
+        if (s.indexOf(':') < 0) {
+            // not a timestamp, and cheaper to tell than by parsing it
             return s;
         }
+        // same as DateFormat.parse(String) without the cost of an exception
+        Date date = timestampFormat.get().parse(s, new ParsePosition(0));
+        return date != null ? date : s;
     }
 
+    /**
+     * Where the value of one parameter comes from: a quoted value of the
+     * filter (with LIKE wildcards around strings) or a constant.
+     */
+    private static final class Slot {
+
+        private final int literal;
 
+        private final Object constant;
 
+        private final String valuePrefix;
+
+        private final String valueSuffix;
+
+        private Slot(int literal, Object constant, String valuePrefix, String valueSuffix) {
+            this.literal = literal;
+            this.constant = constant;
+            this.valuePrefix = valuePrefix;
+            this.valueSuffix = valueSuffix;
+        }
+    }
+
+    /**
+     * The SQL for one filter shape and where its parameters come from.
+     */
+    private static final class Plan {
+
+        private final String sql;
+
+        private final Slot[] slots;
+
+        private Plan(String sql, List<Slot> slots) {
+            this.sql = sql;
+            this.slots = slots.toArray(new Slot[slots.size()]);
+        }
+
+        private ProcessedFilter bind(List<Object> literals) {
+            Map<String, Object> values = new HashMap<String, Object>();
+            for (int i = 0; i < slots.length; i++) {
+                Slot slot = slots[i];
+                Object value = slot.constant;
+                if (slot.literal >= 0) {
+                    value = literals.get(slot.literal);
+                    if (value instanceof String) {
+                        value = slot.valuePrefix + value + slot.valueSuffix;
+                    }
+                }
+                values.put(DEFAULT_PARAM_PREFIX + i, value);
+            }
+            ProcessedFilter pf = new ProcessedFilter(sql, values);
+            pf.setParamPrefix(DEFAULT_PARAM_PREFIX);
+            return pf;
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.user;
+
+import java.util.Locale;
+
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.audit.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
+import org.springframework.context.ApplicationListener;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.util.Assert;
+
+/**
+ * Read-through cache in front of another {@link UaaUserDatabase}, so that the
+ * several user lookups made while issuing, refreshing or checking a token do
+ * not each go to the database.
+ * <p>
+ * Users are kept by id, and the id by lower case username and origin, for at
+ * most <code>timeToLiveSeconds</code>. Unknown users are not cached. A user
+ * is evicted when SCIM publishes that it was modified or deleted (and should
+ * be {@link #evict(String) evicted} when its password is changed), and every
+ * user is evicted when a group changes, so that the last modified checks
+ * made on tokens stay correct. Changes made directly in the database are
+ * picked up once the entry expires. The cached instances are shared, so
+ * callers must not modify them. The cache is disabled by default.
+ */
+@ManagedResource
+public class CachingUaaUserDatabase implements UaaUserDatabase, ApplicationListener<AbstractUaaEvent> {
+
+    private final UaaUserDatabase delegate;
+
+    private final ExpiringLruCache<String, UaaUser> users;
+
+    private final ExpiringLruCache<String, String> ids;
+
+    private boolean enabled = false;
+
+    public CachingUaaUserDatabase(UaaUserDatabase delegate) {
+        this(delegate, 10000, 10);
+    }
+
+    public CachingUaaUserDatabase(UaaUserDatabase delegate, int maxEntries, int timeToLiveSeconds) {
+        Assert.notNull(delegate, "delegate must not be null");
+        this.delegate = delegate;
+        this.users = new ExpiringLruCache<String, UaaUser>(maxEntries, timeToLiveSeconds * 1000L);
+        this.ids = new ExpiringLruCache<String, String>(maxEntries, timeToLiveSeconds * 1000L);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    @Override
+    public UaaUser retrieveUserByName(String username, String origin) throws UsernameNotFoundException {
+        if (!enabled || username == null) {
+            return delegate.retrieveUserByName(username, origin);
+        }
+        String key = username.toLowerCase(Locale.US) + "\n" + origin;
+        String id = ids.get(key);
+        UaaUser user = id == null ? null : users.get(id);
+        // the user may have been renamed since the id was cached
+        if (user == null || !user.getUsername().equalsIgnoreCase(username) || !equals(user.getOrigin(), origin)) {
+            user = delegate.retrieveUserByName(username, origin);
+            users.put(user.getId(), user);
+            ids.put(key, user.getId());
+        }
+        return user;
+    }
+
+    @Override
+    public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+        if (!enabled || id == null) {
+            return delegate.retrieveUserById(id);
+        }
+        UaaUser user = users.get(id);
+        if (user == null) {
+            user = delegate.retrieveUserById(id);
+            users.put(id, user);
+        }
+        return user;
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof UserModifiedEvent) {
+            evict(((UserModifiedEvent) event).getUserId());
+        }
+        else if (event instanceof GroupModifiedEvent) {
+            // authorities come from group memberships, which may be nested
+            clear();
+        }
+    }
+
+    /**
+     * Forgets a user so that the next lookup goes to the delegate.
+     */
+    public void evict(String id) {
+        if (id != null) {
+            users.remove(id);
+        }
+    }
+
+    public void clear() {
+        users.clear();
+        ids.clear();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "User Cache Hits")
+    public long getHitCount() {
+        return users.getHitCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "User Cache Misses")
+    public long getMissCount() {
+        return users.getMissCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "User Cache Evictions")
+    public long getEvictionCount() {
+        return users.getEvictionCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "User Cache Size")
+    public int getSize() {
+        return users.size();
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
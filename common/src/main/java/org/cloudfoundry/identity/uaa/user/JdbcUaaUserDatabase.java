@@ -15,17 +15,23 @@ package org.cloudfoundry.identity.uaa.user;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -45,14 +51,39 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
     public static final String DEFAULT_USER_BY_ID_QUERY = "select " + USER_FIELDS + "from users "
         + "where id = ? and active=?";
 
+    public static final String DEFAULT_USER_AUTHORITIES_QUERY = "select g.displayName from groups g, group_membership m "
+                    + "where g.id = m.group_id and m.member_id = ?";
+
+    private static final String JOINED_USER_FIELDS = "u.id,u.username,u.password,u.email,u.givenName,u.familyName,"
+                    + "u.created,u.lastModified,u.authorities,u.origin,u.external_id,u.verified,g.displayName ";
+
+    private static final String GROUPS_JOIN = "from users u left join group_membership m on m.member_id = u.id "
+                    + "left join groups g on g.id = m.group_id ";
+
+    public static final String DEFAULT_USER_WITH_GROUPS_BY_USERNAME_QUERY = "select " + JOINED_USER_FIELDS + GROUPS_JOIN
+                    + "where lower(u.username) = ? and u.active=? and u.origin=?";
+
+    public static final String DEFAULT_USER_WITH_GROUPS_BY_ID_QUERY = "select " + JOINED_USER_FIELDS + GROUPS_JOIN
+                    + "where u.id = ? and u.active=?";
+
+    private static final int MAX_INTERNED_AUTHORITIES = 10000;
+
+    private static final ConcurrentMap<String, GrantedAuthority> internedAuthorities = new ConcurrentHashMap<String, GrantedAuthority>();
+
     private String userAuthoritiesQuery = null;
 
+    private boolean groupAuthoritiesQuery = false;
+
     private String userByUserNameQuery = DEFAULT_USER_BY_USERNAME_QUERY;
 
+    private boolean joinGroupAuthorities = false;
+
     private JdbcTemplate jdbcTemplate;
 
     private final RowMapper<UaaUser> mapper = new UaaUserRowMapper();
 
+    private final ResultSetExtractor<UaaUser> userWithGroupsExtractor = new UaaUserWithGroupsExtractor();
+
     private Set<String> defaultAuthorities = new HashSet<String>();
 
     public void setUserByUserNameQuery(String userByUserNameQuery) {
@@ -61,6 +92,19 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     public void setUserAuthoritiesQuery(String userAuthoritiesQuery) {
         this.userAuthoritiesQuery = userAuthoritiesQuery;
+        this.groupAuthoritiesQuery = userAuthoritiesQuery != null
+                        && DEFAULT_USER_AUTHORITIES_QUERY.equals(userAuthoritiesQuery.trim().replaceAll("\\s+", " "));
+    }
+
+    /**
+     * @param joinGroupAuthorities true to read the users and the names of the
+     *            groups they are members of in one query (instead of the
+     *            user authorities query), if the user authorities query is
+     *            {@link #DEFAULT_USER_AUTHORITIES_QUERY} and, for lookups by
+     *            name, the query by user name has not been changed
+     */
+    public void setJoinGroupAuthorities(boolean joinGroupAuthorities) {
+        this.joinGroupAuthorities = joinGroupAuthorities;
     }
 
     public void setDefaultAuthorities(Set<String> defaultAuthorities) {
@@ -74,8 +118,17 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     @Override
     public UaaUser retrieveUserByName(String username, String origin) throws UsernameNotFoundException {
+        String name = username.toLowerCase(Locale.US);
+        if (isJoinGroupAuthorities() && DEFAULT_USER_BY_USERNAME_QUERY.equals(userByUserNameQuery)) {
+            UaaUser user = jdbcTemplate.query(DEFAULT_USER_WITH_GROUPS_BY_USERNAME_QUERY, userWithGroupsExtractor,
+                            name, true, origin);
+            if (user == null) {
+                throw new UsernameNotFoundException(username);
+            }
+            return user;
+        }
         try {
-            return jdbcTemplate.queryForObject(userByUserNameQuery, mapper, username.toLowerCase(Locale.US), true, origin);
+            return withAuthorities(jdbcTemplate.queryForObject(userByUserNameQuery, mapper, name, true, origin));
         } catch (EmptyResultDataAccessException e) {
             throw new UsernameNotFoundException(username);
         }
@@ -83,47 +136,118 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     @Override
     public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+        if (isJoinGroupAuthorities()) {
+            UaaUser user = jdbcTemplate.query(DEFAULT_USER_WITH_GROUPS_BY_ID_QUERY, userWithGroupsExtractor, id, true);
+            if (user == null) {
+                throw new UsernameNotFoundException(id);
+            }
+            return user;
+        }
         try {
-            return jdbcTemplate.queryForObject(DEFAULT_USER_BY_ID_QUERY, mapper, id, true);
+            return withAuthorities(jdbcTemplate.queryForObject(DEFAULT_USER_BY_ID_QUERY, mapper, id, true));
         } catch (EmptyResultDataAccessException e) {
             throw new UsernameNotFoundException(id);
         }
     }
 
+    /**
+     * @return true if joining the groups gives the same authorities as the
+     *         user authorities query
+     */
+    private boolean isJoinGroupAuthorities() {
+        return joinGroupAuthorities && groupAuthoritiesQuery;
+    }
+
+    /**
+     * Replaces the authorities of a user read from the users table with its
+     * groups, if there is a user authorities query. The query runs after the
+     * user's result set has been closed.
+     */
+    private UaaUser withAuthorities(UaaUser user) {
+        if (userAuthoritiesQuery == null) {
+            return user;
+        }
+        return withAuthorities(user, new LinkedHashSet<String>(jdbcTemplate.queryForList(userAuthoritiesQuery,
+                        String.class, user.getId())));
+    }
+
+    private UaaUser withAuthorities(UaaUser user, Set<String> names) {
+        names.addAll(defaultAuthorities);
+        return new UaaUser(user.getId(), user.getUsername(), user.getPassword(), user.getEmail(), getAuthorities(names),
+                        user.getGivenName(), user.getFamilyName(), user.getCreated(), user.getModified(),
+                        user.getOrigin(), user.getExternalId(), user.isVerified());
+    }
+
+    private static UaaUser mapUser(ResultSet rs, List<GrantedAuthority> authorities) throws SQLException {
+        return new UaaUser(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                        authorities, rs.getString(5), rs.getString(6),
+                        rs.getTimestamp(7), rs.getTimestamp(8), rs.getString(10), rs.getString(11), rs.getBoolean(12));
+    }
+
+    /**
+     * The authorities with the given names, trimmed and without empty ones.
+     * The instances are shared, so that the authorities most users have are
+     * not created again for every login.
+     */
+    static List<GrantedAuthority> getAuthorities(Collection<String> names) {
+        List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(names.size());
+        for (String name : names) {
+            name = name == null ? "" : name.trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            GrantedAuthority authority = internedAuthorities.get(name);
+            if (authority == null) {
+                authority = new SimpleGrantedAuthority(name);
+                if (internedAuthorities.size() < MAX_INTERNED_AUTHORITIES) {
+                    GrantedAuthority existing = internedAuthorities.putIfAbsent(name, authority);
+                    if (existing != null) {
+                        authority = existing;
+                    }
+                }
+            }
+            authorities.add(authority);
+        }
+        return authorities;
+    }
+
     private final class UaaUserRowMapper implements RowMapper<UaaUser> {
         @Override
         public UaaUser mapRow(ResultSet rs, int rowNum) throws SQLException {
-            String id = rs.getString(1);
-            if (userAuthoritiesQuery == null) {
-                return new UaaUser(id, rs.getString(2), rs.getString(3), rs.getString(4),
-                                getDefaultAuthorities(rs.getString(9)), rs.getString(5), rs.getString(6),
-                                rs.getTimestamp(7), rs.getTimestamp(8), rs.getString(10), rs.getString(11), rs.getBoolean(12));
-            } else {
-                List<GrantedAuthority> authorities = AuthorityUtils
-                                .commaSeparatedStringToAuthorityList(getAuthorities(id));
-                return new UaaUser(id, rs.getString(2), rs.getString(3), rs.getString(4),
-                                authorities, rs.getString(5), rs.getString(6),
-                                rs.getTimestamp(7), rs.getTimestamp(8), rs.getString(10), rs.getString(11), rs.getBoolean(12));
+            if (userAuthoritiesQuery != null) {
+                // replaced once the result set is closed
+                return mapUser(rs, Collections.<GrantedAuthority> emptyList());
             }
+            Set<String> names = new LinkedHashSet<String>();
+            String authorities = rs.getString(9);
+            if (authorities != null) {
+                names.addAll(Arrays.asList(StringUtils.tokenizeToStringArray(authorities, ",")));
+            }
+            names.addAll(defaultAuthorities);
+            return mapUser(rs, getAuthorities(names));
         }
+    }
 
-        private List<GrantedAuthority> getDefaultAuthorities(String defaultAuth) {
-            List<String> authorities = new ArrayList<String>();
-            authorities.addAll(StringUtils.commaDelimitedListToSet(defaultAuth));
-            authorities.addAll(defaultAuthorities);
-            String authsString = StringUtils.collectionToCommaDelimitedString(new HashSet<String>(authorities));
-            return AuthorityUtils.commaSeparatedStringToAuthorityList(authsString);
-        }
-
-        private String getAuthorities(final String userId) {
-            List<String> authorities;
-            try {
-                authorities = jdbcTemplate.queryForList(userAuthoritiesQuery, String.class, userId);
-            } catch (EmptyResultDataAccessException ex) {
-                authorities = Collections.<String> emptyList();
+    /**
+     * Maps the rows of a user joined with its groups (one row per group, or a
+     * single row with no group) to a user with the group names and the
+     * default authorities.
+     */
+    private final class UaaUserWithGroupsExtractor implements ResultSetExtractor<UaaUser> {
+        @Override
+        public UaaUser extractData(ResultSet rs) throws SQLException {
+            UaaUser user = null;
+            Set<String> names = new LinkedHashSet<String>();
+            while (rs.next()) {
+                if (user == null) {
+                    user = mapUser(rs, Collections.<GrantedAuthority> emptyList());
+                }
+                String group = rs.getString(13);
+                if (group != null) {
+                    names.add(group);
+                }
             }
-            authorities.addAll(defaultAuthorities);
-            return StringUtils.collectionToCommaDelimitedString(new HashSet<String>(authorities));
+            return user == null ? null : withAuthorities(user, names);
         }
     }
 }
@@ -17,9 +17,12 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.springframework.security.crypto.util.EncodingUtils.concatenate;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.codec.Hex;
@@ -32,10 +35,25 @@ import org.springframework.security.oauth2.common.util.RandomValueStringGenerato
 /**
  * Wrapper around a slow password encoder that does a fast translation in memory only
  * This uses a hash to as a key to store a list of
+ * <p>
+ * At most <code>maxKeys</code> passwords are remembered, each for at most
+ * <code>timeToLiveSeconds</code>. When the cache is full the least recently
+ * used password is dropped.
  */
+@ManagedResource
 public class CachingPasswordEncoder implements PasswordEncoder {
 
-    private final MessageDigest messageDigest;
+    private static final ThreadLocal<MessageDigest> messageDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    };
+
     private final byte[] secret;
     private final byte[] salt;
     private final BytesKeyGenerator saltGenerator;
@@ -43,8 +61,12 @@ public class CachingPasswordEncoder implements PasswordEncoder {
 
     private int maxKeys = 1000;
     private int maxEncodedPasswords = 5;
+    private int timeToLiveSeconds = 300;
     private boolean enabled = true;
 
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -53,12 +75,11 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         this.enabled = enabled;
     }
 
-    private final ConcurrentHashMap<CharSequence, Set<String>> cache = new ConcurrentHashMap<>();
+    private volatile ExpiringLruCache<String, Set<String>> cache = newCache();
 
     private BCryptPasswordEncoder passwordEncoder;
 
     public CachingPasswordEncoder() throws NoSuchAlgorithmException {
-        messageDigest = MessageDigest.getInstance("SHA-256");
         this.secret = Utf8.encode(new RandomValueStringGenerator().generate());
         this.saltGenerator = KeyGenerators.secureRandom();
         this.salt = saltGenerator.generateKey();
@@ -90,25 +111,28 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     private Set<String> getOrCreateHashList(String cacheKey) {
-        cache.putIfAbsent(cacheKey, Collections.synchronizedSet(new LinkedHashSet<String>()));
-        if (cache.size()>getMaxKeys()) {
-            //this should not happen if properly tuned.
-            cache.clear();
-        }
-        Set<String> result = cache.get(cacheKey);
-        return result;
+        Set<String> result = Collections.synchronizedSet(new LinkedHashSet<String>());
+        Set<String> existing = cache.putIfAbsent(cacheKey, result);
+        return existing != null ? existing : result;
     }
 
     private boolean internalMatches(String cacheKey, CharSequence rawPassword, String encodedPassword) {
         Set<String> cacheValue = cache.get(cacheKey);
         boolean result = false;
-        for (String encoded : cacheValue!=null ? cacheValue : Collections.<String>emptyList()) {
-            if (hashesEquals(encoded, encodedPassword)) {
-                result = true;
-                break;
+        if (cacheValue!=null) {
+            synchronized (cacheValue) {
+                for (String encoded : cacheValue) {
+                    if (hashesEquals(encoded, encodedPassword)) {
+                        result = true;
+                        break;
+                    }
+                }
             }
         }
-        if (!result) {
+        if (result) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
             String encoded = BCrypt.hashpw(rawPassword.toString(), encodedPassword);
             if (hashesEquals(encoded, encodedPassword)) {
                 result = true;
@@ -138,12 +162,11 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     private byte[] digest(byte[] value) {
-        synchronized (messageDigest) {
-            for (int i = 0; i < iterations; i++) {
-                value = messageDigest.digest(value);
-            }
-            return value;
+        MessageDigest digest = messageDigest.get();
+        for (int i = 0; i < iterations; i++) {
+            value = digest.digest(value);
         }
+        return value;
     }
 
     private boolean hashesEquals(String a, String b) {
@@ -167,6 +190,16 @@ public class CachingPasswordEncoder implements PasswordEncoder {
 
     public void setMaxKeys(int maxKeys) {
         this.maxKeys = maxKeys;
+        this.cache = newCache();
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+        this.cache = newCache();
     }
 
     public int getMaxEncodedPasswords() {
@@ -177,7 +210,36 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         this.maxEncodedPasswords = maxEncodedPasswords;
     }
 
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Password Cache Size")
     public int getNumberOfKeys() {
         return cache.size();
     }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Password Cache Hits")
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Password Cache Misses")
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Password Cache Hit Ratio")
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Password Cache Evictions")
+    public long getEvictionCount() {
+        return cache.getEvictionCount() + cache.getExpirationCount();
+    }
+
+    private ExpiringLruCache<String, Set<String>> newCache() {
+        // small caches use a single segment so that they are exactly LRU
+        int concurrencyLevel = Math.max(1, Math.min(ExpiringLruCache.DEFAULT_CONCURRENCY_LEVEL, maxKeys / 64));
+        return new ExpiringLruCache<String, Set<String>>(maxKeys, timeToLiveSeconds * 1000L, concurrencyLevel);
+    }
 }
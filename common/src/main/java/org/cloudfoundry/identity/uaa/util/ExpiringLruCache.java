@@ -0,0 +1,241 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * A bounded in memory cache where every entry has a time to live.
+ * <p>
+ * The cache is split into segments, each of which is a small access ordered
+ * map guarded by its own lock, so concurrent readers of different keys
+ * rarely contend. When a segment is full its least recently used entry is
+ * evicted. Expired entries are dropped when they are next read.
+ * <p>
+ * Hits, misses, evictions and expirations are counted so that owners can
+ * expose them as metrics.
+ */
+public class ExpiringLruCache<K, V> {
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private final long timeToLiveMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    public ExpiringLruCache(int maxEntries, long timeToLiveMillis) {
+        this(maxEntries, timeToLiveMillis, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maxEntries the (approximate) maximum number of entries held
+     * @param timeToLiveMillis how long an entry stays valid after it is stored
+     * @param concurrencyLevel the number of independently locked segments
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ExpiringLruCache(int maxEntries, long timeToLiveMillis, int concurrencyLevel) {
+        Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+        Assert.isTrue(timeToLiveMillis > 0, "timeToLiveMillis must be positive");
+        Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be positive");
+        this.timeToLiveMillis = timeToLiveMillis;
+        int count = Math.min(concurrencyLevel, maxEntries);
+        int capacity = (maxEntries + count - 1) / count;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>(capacity, evictions);
+        }
+    }
+
+    /**
+     * @return the value stored for the key, or null if there is none or it
+     *         has expired
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        long now = currentTimeMillis();
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                segment.remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a value for the configured time to live.
+     */
+    public void put(K key, V value) {
+        put(key, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Stores a value until the given time or for the configured time to live,
+     * whichever comes first.
+     *
+     * @param expiresAt the time (in milliseconds since the epoch) after which
+     *            the value must no longer be returned
+     */
+    public void put(K key, V value, long expiresAt) {
+        long now = currentTimeMillis();
+        long expiry = Math.min(expiresAt, now + timeToLiveMillis);
+        if (expiry <= now) {
+            return;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new Entry<V>(value, expiry));
+        }
+    }
+
+    /**
+     * Stores a value for the configured time to live unless the key already
+     * has one that has not expired.
+     *
+     * @return the value already stored for the key, or null if the given
+     *         value was stored
+     */
+    public V putIfAbsent(K key, V value) {
+        long now = currentTimeMillis();
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.value;
+            }
+            segment.put(key, new Entry<V>(value, now + timeToLiveMillis));
+            return null;
+        }
+    }
+
+    /**
+     * @return the value that was removed, or null
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.remove(key);
+            return entry == null ? null : entry.value;
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries held, including ones that have expired
+     *         but not been read since
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * @return the ratio of hits to lookups, 0 if there have been none
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % segments.length];
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+
+        private final int capacity;
+
+        private final AtomicLong evictions;
+
+        private Segment(int capacity, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
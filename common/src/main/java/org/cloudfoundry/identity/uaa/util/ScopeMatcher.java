@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches scopes against a set of scopes that may contain wildcards, with the
+ * same rules as {@link UaaStringUtils#constructWildcards(Set)}: a
+ * <code>*</code> stands for one or more characters other than a period, and
+ * every other character stands for itself. No regular expression is compiled.
+ * <p>
+ * Scopes without wildcards are looked up in a hash set. Scopes with wildcards
+ * are kept in a trie by their text up to the first wildcard, so a scope is
+ * only compared with the wildcards whose prefix it starts with. Instances are
+ * immutable and can be shared between threads.
+ */
+public final class ScopeMatcher {
+
+    private static final String WILDCARD = "*";
+
+    private final Set<String> scopes;
+
+    private final Set<String> exact = new HashSet<String>();
+
+    private final Node root = new Node();
+
+    private ScopeMatcher(Collection<String> scopes) {
+        this.scopes = Collections.unmodifiableSet(new HashSet<String>(scopes));
+        for (String scope : this.scopes) {
+            if (!scope.contains(WILDCARD)) {
+                exact.add(scope);
+                continue;
+            }
+            // the text before the first wildcard, then the text after each one
+            String[] parts = scope.split("\\*", -1);
+            Node node = root;
+            for (int i = 0; i < parts[0].length(); i++) {
+                node = node.child(parts[0].charAt(i));
+            }
+            node.wildcards.add(parts);
+        }
+    }
+
+    public static ScopeMatcher of(Collection<String> scopes) {
+        return new ScopeMatcher(scopes == null ? Collections.<String> emptySet() : scopes);
+    }
+
+    /**
+     * @return the scopes this matcher was built from
+     */
+    public Set<String> getScopes() {
+        return scopes;
+    }
+
+    /**
+     * @return true if the scopes this matcher was built from are the given
+     *         ones, so that it can be used in their place
+     */
+    public boolean isFor(Collection<String> scopes) {
+        return scopes != null && this.scopes.equals(scopes instanceof Set ? scopes : new HashSet<String>(scopes));
+    }
+
+    public boolean matches(String scope) {
+        if (scope == null) {
+            return false;
+        }
+        if (exact.contains(scope)) {
+            return true;
+        }
+        Node node = root;
+        for (int i = 0; node != null; i++) {
+            for (String[] parts : node.wildcards) {
+                if (matches(scope, i, parts, 1)) {
+                    return true;
+                }
+            }
+            node = i < scope.length() ? node.children.get(scope.charAt(i)) : null;
+        }
+        return false;
+    }
+
+    /**
+     * Matches the wildcard before <code>parts[index]</code>, followed by the
+     * rest of the parts, against the scope from <code>start</code>.
+     */
+    private static boolean matches(String scope, int start, String[] parts, int index) {
+        int limit = start;
+        while (limit < scope.length() && scope.charAt(limit) != '.') {
+            limit++;
+        }
+        String literal = parts[index];
+        boolean last = index == parts.length - 1;
+        for (int end = start + 1; end <= limit; end++) {
+            if (scope.startsWith(literal, end)) {
+                int next = end + literal.length();
+                if (last ? next == scope.length() : matches(scope, next, parts, index + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class Node {
+
+        private final Map<Character, Node> children = new HashMap<Character, Node>();
+
+        private final List<String[]> wildcards = new ArrayList<String[]>(0);
+
+        private Node child(char c) {
+            Node node = children.get(c);
+            if (node == null) {
+                node = new Node();
+                children.put(c, node);
+            }
+            return node;
+        }
+    }
+}
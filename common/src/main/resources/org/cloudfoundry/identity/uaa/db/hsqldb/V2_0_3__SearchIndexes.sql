@@ -0,0 +1,4 @@
+-- SCIM filters on ids are compared as given, so plain indexes serve lookups
+-- of the groups of a member and of the approvals granted to a client
+CREATE INDEX group_membership_member ON group_membership (member_id);
+CREATE INDEX authz_approvals_client ON authz_approvals (client_id);
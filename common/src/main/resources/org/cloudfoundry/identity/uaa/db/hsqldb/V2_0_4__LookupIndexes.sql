@@ -0,0 +1,5 @@
+-- removal of expired codes
+CREATE INDEX expiring_code_store_expiresat ON expiring_code_store (expiresat);
+-- recent events of a principal, and removal of old events
+CREATE INDEX audit_principal_created ON sec_audit (principal_id, created);
+CREATE INDEX audit_created ON sec_audit (created);
@@ -0,0 +1,9 @@
+-- leases that let one node at a time run a background task, such as
+-- purging expired approvals
+CREATE TABLE task_lock (
+  name VARCHAR(64) NOT NULL PRIMARY KEY,
+  holder VARCHAR(255) NOT NULL,
+  expires_at BIGINT NOT NULL
+);
+-- removal of expired approvals
+CREATE INDEX authz_approvals_expiresat ON authz_approvals (expiresAt);
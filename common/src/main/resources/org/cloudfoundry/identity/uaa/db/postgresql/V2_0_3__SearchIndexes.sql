@@ -0,0 +1,7 @@
+-- SCIM filters on ids are compared as given, so plain indexes serve lookups
+-- of the groups of a member and of the approvals granted to a client
+CREATE INDEX group_membership_member ON group_membership (member_id);
+CREATE INDEX authz_approvals_client ON authz_approvals (client_id);
+-- other string comparisons are case insensitive, on LOWER(column)
+CREATE INDEX users_email_lower ON users (LOWER(email));
+CREATE INDEX groups_displayname_lower ON groups (LOWER(displayName));
@@ -0,0 +1,7 @@
+-- mappings of an external (e.g. LDAP) group to the groups it grants, looked up case insensitively
+CREATE INDEX external_group_mapping_external ON external_group_mapping (LOWER(external_group));
+-- removal of expired codes
+CREATE INDEX expiring_code_store_expiresat ON expiring_code_store (expiresat);
+-- recent events of a principal, replacing the index on the principal alone
+CREATE INDEX audit_principal_created ON sec_audit (principal_id, created);
+DROP INDEX IF EXISTS audit_principal;
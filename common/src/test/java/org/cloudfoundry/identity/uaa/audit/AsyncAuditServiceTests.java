@@ -0,0 +1,205 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.audit.AsyncAuditService.OverflowPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncAuditServiceTests {
+
+    private final List<AuditEvent> saved = Collections.synchronizedList(new ArrayList<AuditEvent>());
+
+    private JdbcAuditService delegate = new JdbcAuditService(mock(DataSource.class)) {
+        @Override
+        public void log(List<AuditEvent> auditEvents) {
+            saved.addAll(auditEvents);
+        }
+
+        @Override
+        public List<AuditEvent> find(String principal, long after) {
+            return new ArrayList<AuditEvent>(saved);
+        }
+    };
+
+    private AsyncAuditService service = new AsyncAuditService(delegate);
+
+    @Before
+    public void setUp() {
+        service.setCapacity(2);
+        service.setFlushSize(10);
+        service.setFlushIntervalMillis(60000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.destroy();
+    }
+
+    @Test
+    public void testEventsAreQueuedUntilFlushed() throws Exception {
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        assertEquals(0, saved.size());
+        assertEquals(1, service.getQueueSize());
+        service.flush();
+        assertEquals(1, saved.size());
+        assertEquals(1, service.getWrittenCount());
+    }
+
+    @Test
+    public void testFullBatchIsWrittenByWriter() throws Exception {
+        service.setFlushSize(2);
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        service.log(event("2"));
+        for (int i = 0; i < 100 && saved.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, saved.size());
+    }
+
+    @Test
+    public void testFindSeesQueuedEvents() throws Exception {
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        assertEquals(1, service.find("1", 0).size());
+    }
+
+    @Test
+    public void testFindDoesNotWriteTheQueue() throws Exception {
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        service.log(event("2"));
+        assertEquals(1, service.find("1", 0).size());
+        assertEquals(0, saved.size());
+        assertEquals(2, service.getQueueSize());
+    }
+
+    @Test
+    public void testFindDoesNotWaitForTheWriter() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        service = new AsyncAuditService(new JdbcAuditService(mock(DataSource.class)) {
+            @Override
+            public void log(List<AuditEvent> auditEvents) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public List<AuditEvent> find(String principal, long after) {
+                return new ArrayList<AuditEvent>();
+            }
+        });
+        service.setFlushIntervalMillis(60000);
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                service.flush();
+            }
+        });
+        flusher.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        service.log(event("1"));
+        long start = System.currentTimeMillis();
+        assertEquals(1, service.find("1", 0).size());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        release.countDown();
+        flusher.join(5000);
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        service.setOverflowPolicy(OverflowPolicy.DROP);
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        service.log(event("2"));
+        service.log(event("3"));
+        assertEquals(1, service.getDroppedCount());
+        service.flush();
+        assertEquals(2, saved.size());
+    }
+
+    @Test
+    public void testSynchronousWhenFullKeepsOrder() throws Exception {
+        service.setOverflowPolicy(OverflowPolicy.SYNCHRONOUS);
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        service.log(event("2"));
+        service.log(event("3"));
+        assertEquals(1, service.getOverflowCount());
+        assertEquals(Arrays.asList("1", "2", "3"), principals());
+    }
+
+    @Test
+    public void testQueueIsDrainedOnDestroy() throws Exception {
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        service.log(event("2"));
+        service.destroy();
+        assertEquals(Arrays.asList("1", "2"), principals());
+    }
+
+    @Test
+    public void testFailedWritesAreCounted() throws Exception {
+        JdbcAuditService failing = mock(JdbcAuditService.class);
+        doThrow(new IllegalStateException("down")).when(failing).log(anyListOf(AuditEvent.class));
+        service = new AsyncAuditService(failing);
+        service.afterPropertiesSet();
+        service.log(event("1"));
+        service.flush();
+        assertEquals(1, service.getFailedCount());
+        verify(failing, times(1)).log(anyListOf(AuditEvent.class));
+        verify(failing, never()).log(any(AuditEvent.class));
+    }
+
+    private List<String> principals() {
+        List<String> result = new ArrayList<String>();
+        for (AuditEvent event : saved) {
+            result.add(event.getPrincipalId());
+        }
+        return result;
+    }
+
+    private AuditEvent event(String principal) {
+        return new AuditEvent(AuditEventType.UserAuthenticationFailure, principal, "1.1.1.1", null,
+                        System.currentTimeMillis());
+    }
+}
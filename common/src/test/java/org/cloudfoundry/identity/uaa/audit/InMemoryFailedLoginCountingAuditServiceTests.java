@@ -0,0 +1,183 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.PasswordChangeSuccess;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationSuccess;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryFailedLoginCountingAuditServiceTests {
+
+    private long now = 1000000L;
+
+    private InMemoryFailedLoginCountingAuditService service;
+
+    @Before
+    public void setUp() {
+        service = new InMemoryFailedLoginCountingAuditService(10, 60000) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        service.setMaxFailures(3);
+        service.setEnabled(true);
+    }
+
+    @Test
+    public void failuresAreFoundMostRecentFirst() {
+        service.log(event(UserAuthenticationFailure, "1", now - 2000));
+        service.log(event(UserAuthenticationFailure, "1", now - 1000));
+        service.log(event(UserAuthenticationFailure, "2", now));
+        List<AuditEvent> events = service.find("1", 0);
+        assertEquals(2, events.size());
+        assertEquals(now - 1000, events.get(0).getTime());
+        assertEquals(now - 2000, events.get(1).getTime());
+        assertEquals("1", events.get(0).getPrincipalId());
+    }
+
+    @Test
+    public void onlyTheMostRecentFailuresAreKept() {
+        for (int i = 0; i < 5; i++) {
+            service.log(event(UserAuthenticationFailure, "1", now + i));
+        }
+        List<AuditEvent> events = service.find("1", 0);
+        assertEquals(3, events.size());
+        assertEquals(now + 4, events.get(0).getTime());
+        assertEquals(now + 2, events.get(2).getTime());
+    }
+
+    @Test
+    public void findOnlyReturnsFailuresAfterRequestedTime() {
+        service.log(event(UserAuthenticationFailure, "1", now - 2000));
+        service.log(event(UserAuthenticationFailure, "1", now));
+        assertEquals(1, service.find("1", now - 1000).size());
+    }
+
+    @Test
+    public void successForgetsFailures() {
+        service.log(event(UserAuthenticationFailure, "1", now));
+        service.log(event(UserAuthenticationSuccess, "1", now));
+        assertEquals(0, service.find("1", 0).size());
+        service.log(event(UserAuthenticationFailure, "1", now));
+        service.log(event(PasswordChangeSuccess, "1", now));
+        assertEquals(0, service.find("1", 0).size());
+    }
+
+    @Test
+    public void failuresExpireAfterThePeriod() {
+        service.log(event(UserAuthenticationFailure, "1", now));
+        now += 60001;
+        assertEquals(0, service.find("1", 0).size());
+    }
+
+    @Test
+    public void eventsArePassedOnAndUnknownPrincipalsAreLoadedOnce() {
+        UaaAuditService delegate = mock(UaaAuditService.class);
+        when(delegate.find(eq("1"), anyLong())).thenReturn(Arrays.asList(
+                        event(UserAuthenticationFailure, "1", now - 1000),
+                        event(UserAuthenticationFailure, "1", now - 2000)));
+        service.setDelegate(delegate);
+        assertEquals(2, service.find("1", 0).size());
+        AuditEvent failure = event(UserAuthenticationFailure, "1", now);
+        service.log(failure);
+        List<AuditEvent> events = service.find("1", 0);
+        assertEquals(3, events.size());
+        assertEquals(now, events.get(0).getTime());
+        assertEquals(now - 2000, events.get(2).getTime());
+        verify(delegate, times(1)).find("1", now - 60000);
+        verify(delegate).log(failure);
+    }
+
+    @Test
+    public void disabledServiceOnlyUsesTheDelegate() {
+        UaaAuditService delegate = mock(UaaAuditService.class);
+        List<AuditEvent> stored = Arrays.asList(event(UserAuthenticationFailure, "1", now - 1000));
+        when(delegate.find("1", 0)).thenReturn(stored);
+        service.setDelegate(delegate);
+        service.setEnabled(false);
+        AuditEvent failure = event(UserAuthenticationFailure, "1", now);
+        service.log(failure);
+        verify(delegate).log(failure);
+        assertEquals(stored, service.find("1", 0));
+        assertEquals(0, service.getPrincipalCount());
+    }
+
+    @Test
+    public void failuresAndSuccessesSeenByOtherServersAreLoadedBelowTheThreshold() {
+        UaaAuditService delegate = mock(UaaAuditService.class);
+        when(delegate.find(eq("1"), anyLong())).thenReturn(
+                        Arrays.asList(event(UserAuthenticationFailure, "1", now - 2000)),
+                        Arrays.asList(event(UserAuthenticationFailure, "1", now - 1000),
+                                        event(UserAuthenticationFailure, "1", now - 2000)),
+                        Collections.<AuditEvent> emptyList());
+        service.setDelegate(delegate);
+        service.setRefreshIntervalMillis(0);
+        assertEquals(1, service.find("1", 0).size());
+        assertEquals(2, service.find("1", 0).size());
+        // a successful login elsewhere cleared them
+        assertEquals(0, service.find("1", 0).size());
+        verify(delegate, times(3)).find("1", now - 60000);
+    }
+
+    @Test
+    public void lockedOutPrincipalsAreNotLoadedAgain() {
+        UaaAuditService delegate = mock(UaaAuditService.class);
+        when(delegate.find(eq("1"), anyLong())).thenReturn(Arrays.asList(
+                        event(UserAuthenticationFailure, "1", now - 1000),
+                        event(UserAuthenticationFailure, "1", now - 2000),
+                        event(UserAuthenticationFailure, "1", now - 3000)));
+        service.setDelegate(delegate);
+        service.setRefreshIntervalMillis(0);
+        assertEquals(3, service.find("1", 0).size());
+        assertEquals(3, service.find("1", 0).size());
+        verify(delegate, times(1)).find(eq("1"), anyLong());
+        // the oldest failure is out of the queried period
+        assertEquals(2, service.find("1", now - 2500).size());
+        verify(delegate, times(2)).find(eq("1"), anyLong());
+    }
+
+    @Test
+    public void windowsAreTrustedForTheRefreshInterval() {
+        UaaAuditService delegate = mock(UaaAuditService.class);
+        when(delegate.find(eq("1"), anyLong())).thenReturn(Collections.<AuditEvent> emptyList());
+        service.setDelegate(delegate);
+        service.find("1", 0);
+        service.find("1", 0);
+        verify(delegate, times(1)).find(eq("1"), anyLong());
+        now += 14999;
+        service.find("1", 0);
+        verify(delegate, times(1)).find(eq("1"), anyLong());
+        now += 1;
+        service.find("1", 0);
+        verify(delegate, times(2)).find(eq("1"), anyLong());
+    }
+
+    private AuditEvent event(AuditEventType type, String principal, long time) {
+        return new AuditEvent(type, principal, "1.1.1.1", null, time);
+    }
+}
@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.uaa.audit;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.cloudfoundry.identity.uaa.audit.AuditEventType.PasswordChangeSuccess;
@@ -59,6 +60,16 @@ public class JdbcFailedLoginCountingAuditServiceTests extends JdbcTestBase {
         assertEquals(1, jdbcTemplate.queryForInt("select count(*) from sec_audit where principal_id='1'"));
     }
 
+    @Test
+    public void oldDataIsDeletedAtMostOncePerPurgeInterval() throws Exception {
+        auditService.setPurgeIntervalMillis(3600 * 1000);
+        long now = System.currentTimeMillis();
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"));
+        jdbcTemplate.update("update sec_audit set created=?", new Timestamp(now - 3 * 3600 * 1000));
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"));
+        assertEquals(2, jdbcTemplate.queryForInt("select count(*) from sec_audit where principal_id='1'"));
+    }
+
     @Test
     public void userAuthenticationSuccessResetsData() throws Exception {
         auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"));
@@ -88,6 +99,31 @@ public class JdbcFailedLoginCountingAuditServiceTests extends JdbcTestBase {
         assertEquals(1, events.size());
     }
 
+    @Test
+    public void batchOnlyKeepsFailuresAfterLastSuccess() throws Exception {
+        auditService.log(Arrays.asList(
+                        getAuditEvent(UserAuthenticationFailure, "1", "joe"),
+                        getAuditEvent(UserAuthenticationSuccess, "1", "joe"),
+                        getAuditEvent(UserAuthenticationFailure, "1", "joe"),
+                        getAuditEvent(UserAuthenticationFailure, "clientA", "joe")));
+        assertEquals(1, jdbcTemplate.queryForInt("select count(*) from sec_audit where principal_id='1'"));
+        assertEquals(1, jdbcTemplate.queryForInt("select count(*) from sec_audit where principal_id='clientA'"));
+    }
+
+    @Test
+    public void findAddsUnsavedFailuresAfterTheLastUnsavedSuccess() throws Exception {
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "saved"));
+        AuditEvent failure = getAuditEvent(UserAuthenticationFailure, "1", "unsaved");
+        List<AuditEvent> events = auditService.find("1", 0, Arrays.asList(failure));
+        assertEquals(2, events.size());
+        assertEquals("unsaved", events.get(0).getData());
+        events = auditService.find("1", 0, Arrays.asList(failure,
+                        getAuditEvent(UserAuthenticationSuccess, "1", "joe"),
+                        getAuditEvent(UserAuthenticationFailure, "1", "last")));
+        assertEquals(1, events.size());
+        assertEquals("last", events.get(0).getData());
+    }
+
     private AuditEvent getAuditEvent(AuditEventType type, String principal, String data) {
         return new AuditEvent(type, principal, authDetails, data, System.currentTimeMillis());
     }
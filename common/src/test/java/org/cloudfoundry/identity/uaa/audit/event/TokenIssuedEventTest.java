@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit.event;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cloudfoundry.identity.uaa.audit.AuditEvent;
+import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+
+public class TokenIssuedEventTest {
+
+    @Test
+    public void testAuditEventUsesTheGivenClaims() throws Exception {
+        // not a JWT, so it would fail if it were decoded
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("opaque");
+        token.setScope(Collections.singleton("openid"));
+        Map<String, Object> claims = new LinkedHashMap<String, Object>();
+        claims.put("user_id", "mruser");
+        claims.put("client_id", "app");
+
+        TokenIssuedEvent event = new TokenIssuedEvent(token, null, claims);
+
+        AuditEvent auditEvent = event.getAuditEvent();
+        Assert.assertEquals("mruser", auditEvent.getPrincipalId());
+        Assert.assertEquals("[\"openid\"]", auditEvent.getData());
+        Assert.assertEquals(AuditEventType.TokenIssuedEvent, auditEvent.getType());
+        Assert.assertEquals("app", event.getClaims().get("client_id"));
+    }
+
+    @Test
+    public void testClaimsAreDecodedWhenNotGiven() throws Exception {
+        String jwt = JwtHelper.encode("{\"client_id\":\"app\",\"scope\":[\"uaa.none\"]}", new MacSigner("key"))
+                        .getEncoded();
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(jwt);
+        token.setScope(Collections.singleton("uaa.none"));
+
+        TokenIssuedEvent event = new TokenIssuedEvent(token, null);
+
+        Assert.assertEquals("app", event.getAuditEvent().getPrincipalId());
+        Assert.assertEquals("app", event.getClaims().get("client_id"));
+    }
+}
@@ -32,6 +32,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
@@ -195,4 +196,87 @@ public class ExpiringCodeStoreTests extends JdbcTestBase {
         }
 
     }
+
+    @Test
+    public void testCodesThatAreNeverRetrievedAreReaped() throws Exception {
+        if (InMemoryExpiringCodeStore.class == expiringCodeStoreClass) {
+            InMemoryExpiringCodeStore store = (InMemoryExpiringCodeStore) expiringCodeStore;
+            store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 50));
+            ExpiringCode retrieved = store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 50));
+            ExpiringCode valid = store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 60000));
+            store.retrieveCode(retrieved.getCode());
+            Thread.sleep(100);
+            assertEquals(1, store.reap());
+            assertEquals(1, store.getSize());
+            assertEquals(1, store.getReapedCount());
+            assertEquals(valid, store.retrieveCode(valid.getCode()));
+        }
+    }
+
+    @Test(expected = DataAccessResourceFailureException.class)
+    public void testFullStoreRejectsCodes() throws Exception {
+        if (InMemoryExpiringCodeStore.class == expiringCodeStoreClass) {
+            InMemoryExpiringCodeStore store = (InMemoryExpiringCodeStore) expiringCodeStore;
+            store.setMaxSize(2);
+            for (int i = 0; i < 3; i++) {
+                store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 60000));
+            }
+        } else {
+            throw new DataAccessResourceFailureException("full");
+        }
+    }
+
+    @Test
+    public void testFullStoreCanEvictTheSoonestExpiringCode() throws Exception {
+        if (InMemoryExpiringCodeStore.class == expiringCodeStoreClass) {
+            InMemoryExpiringCodeStore store = (InMemoryExpiringCodeStore) expiringCodeStore;
+            store.setMaxSize(2);
+            store.setOverflowPolicy(InMemoryExpiringCodeStore.OverflowPolicy.EVICT_SOONEST_EXPIRING);
+            ExpiringCode later = store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 120000));
+            ExpiringCode sooner = store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 60000));
+            ExpiringCode latest = store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 180000));
+            assertEquals(2, store.getSize());
+            assertEquals(1, store.getOverflowCount());
+            assertNull(store.retrieveCode(sooner.getCode()));
+            assertEquals(later, store.retrieveCode(later.getCode()));
+            assertEquals(latest, store.retrieveCode(latest.getCode()));
+        }
+    }
+
+    @Test
+    public void testExpiredCodesAreDeletedInBatches() throws Exception {
+        if (JdbcExpiringCodeStore.class == expiringCodeStoreClass) {
+            JdbcExpiringCodeStore store = (JdbcExpiringCodeStore) expiringCodeStore;
+            store.setSweepBatchSize(2);
+            for (int i = 0; i < 5; i++) {
+                jdbcTemplate.update(JdbcExpiringCodeStore.insert, "expired" + i, System.currentTimeMillis() - 1000, "{}");
+            }
+            ExpiringCode code = store.generateCode("{}", new Timestamp(System.currentTimeMillis() + 60000));
+            assertEquals(5, store.sweep());
+            assertEquals(1, jdbcTemplate.queryForInt("select count(*) from " + JdbcExpiringCodeStore.tableName));
+            assertEquals(1, store.getSweepCount());
+            assertEquals(5, store.getSweptCodeCount());
+            assertEquals(code, store.retrieveCode(code.getCode()));
+        }
+    }
+
+    @Test
+    public void testExpiredCodesAreDeletedInTheBackground() throws Exception {
+        if (JdbcExpiringCodeStore.class == expiringCodeStoreClass) {
+            JdbcExpiringCodeStore store = (JdbcExpiringCodeStore) expiringCodeStore;
+            store.setExpirationInterval(50);
+            store.afterPropertiesSet();
+            try {
+                jdbcTemplate.update(JdbcExpiringCodeStore.insert, "test", System.currentTimeMillis() - 1000, "{}");
+                long timeout = System.currentTimeMillis() + 5000;
+                while (store.getSweptCodeCount() == 0 && System.currentTimeMillis() < timeout) {
+                    Thread.sleep(10);
+                }
+                assertEquals(1, store.getSweptCodeCount());
+                assertEquals(0, jdbcTemplate.queryForInt("select count(*) from " + JdbcExpiringCodeStore.tableName));
+            } finally {
+                store.destroy();
+            }
+        }
+    }
 }
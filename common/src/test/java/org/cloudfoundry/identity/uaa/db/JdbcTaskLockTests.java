@@ -0,0 +1,72 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.db;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JdbcTaskLockTests extends JdbcTestBase {
+
+    private JdbcTaskLock node1;
+
+    private JdbcTaskLock node2;
+
+    @Before
+    public void initLocks() {
+        node1 = new JdbcTaskLock(jdbcTemplate);
+        node1.setHolder("node1");
+        node2 = new JdbcTaskLock(jdbcTemplate);
+        node2.setHolder("node2");
+    }
+
+    @Test
+    public void testOnlyOneHolderAcquiresTheLease() {
+        assertTrue(node1.tryAcquire("task", 60000));
+        assertFalse(node2.tryAcquire("task", 60000));
+        // renewed by its holder
+        assertTrue(node1.tryAcquire("task", 60000));
+        assertFalse(node2.tryAcquire("task", 60000));
+    }
+
+    @Test
+    public void testLeasesAreIndependent() {
+        assertTrue(node1.tryAcquire("task", 60000));
+        assertTrue(node2.tryAcquire("other", 60000));
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws Exception {
+        assertTrue(node1.tryAcquire("task", 10));
+        Thread.sleep(50);
+        assertTrue(node2.tryAcquire("task", 60000));
+        assertFalse(node1.tryAcquire("task", 60000));
+    }
+
+    @Test
+    public void testReleasedLeaseIsTakenOver() {
+        assertTrue(node1.tryAcquire("task", 60000));
+        node2.release("task");
+        assertFalse(node2.tryAcquire("task", 60000));
+        node1.release("task");
+        assertTrue(node2.tryAcquire("task", 60000));
+    }
+
+    @Test
+    public void testDefaultHoldersDiffer() {
+        assertFalse(new JdbcTaskLock(jdbcTemplate).getHolder().equals(new JdbcTaskLock(jdbcTemplate).getHolder()));
+    }
+}
@@ -499,6 +499,31 @@ public class ClientAdminEndpointsTests {
         Mockito.verify(clientRegistrationService).removeClientDetails("foo");
     }
 
+    @Test
+    public void testUpdateAndRemoveClientDetailsEvictFromCache() throws Exception {
+        CachingClientDetailsService cache = mock(CachingClientDetailsService.class);
+        endpoints.setClientDetailsCache(cache);
+        Mockito.when(securityContextAccessor.isAdmin()).thenReturn(true);
+        Mockito.when(clientDetailsService.retrieve(input.getClientId())).thenReturn(new BaseClientDetails(input));
+        endpoints.updateClientDetails(input, input.getClientId());
+        Mockito.verify(cache).evict(input.getClientId());
+        endpoints.removeClientDetails(input.getClientId());
+        Mockito.verify(cache, times(2)).evict(input.getClientId());
+    }
+
+    @Test
+    public void testMultipleUpdateClientDetailsEvictFromCache() throws Exception {
+        CachingClientDetailsService cache = mock(CachingClientDetailsService.class);
+        endpoints.setClientDetailsCache(cache);
+        for (int i = 0; i < inputs.length; i++) {
+            when(clientDetailsService.retrieve(inputs[i].getClientId())).thenReturn(new BaseClientDetails(inputs[i]));
+        }
+        endpoints.updateClientDetailsTx(inputs);
+        for (int i = 0; i < inputs.length; i++) {
+            Mockito.verify(cache).evict(inputs[i].getClientId());
+        }
+    }
+
     @Test(expected = InvalidClientDetailsException.class)
     public void testScopeIsRestrictedByCaller() throws Exception {
         BaseClientDetails caller = new BaseClientDetails("caller", null, "none", "client_credentials,implicit",
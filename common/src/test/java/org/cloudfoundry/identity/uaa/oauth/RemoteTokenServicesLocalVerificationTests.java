@@ -0,0 +1,301 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.identity.uaa.oauth.token.SignerProvider;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs {@link RemoteTokenServices} in local verification mode against a stub
+ * UAA serving /token_key, /token_keys and /check_token over HTTP.
+ */
+public class RemoteTokenServicesLocalVerificationTests {
+
+    private static final String ISSUER = "http://localhost:8080/uaa/oauth/token";
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private final AtomicInteger tokenKeyRequests = new AtomicInteger();
+
+    private final AtomicInteger checkTokenRequests = new AtomicInteger();
+
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile Map<String, String> serverKeys = new LinkedHashMap<String, String>();
+
+    private volatile int tokenKeysStatus = 200;
+
+    private final Set<String> revokedTokens = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private RemoteTokenServices services = new RemoteTokenServices();
+
+    @Before
+    public void startServer() throws Exception {
+        serverKeys.put("key-1", "key1secret");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/token_keys", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                tokenKeyRequests.incrementAndGet();
+                authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                List<Map<String, String>> keys = new ArrayList<Map<String, String>>();
+                for (Map.Entry<String, String> key : serverKeys.entrySet()) {
+                    keys.add(key(key.getKey(), key.getValue()));
+                }
+                respond(exchange, tokenKeysStatus, Collections.singletonMap("keys", keys));
+            }
+        });
+        server.createContext("/token_key", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                tokenKeyRequests.incrementAndGet();
+                Map.Entry<String, String> key = serverKeys.entrySet().iterator().next();
+                respond(exchange, 200, key(key.getKey(), key.getValue()));
+            }
+        });
+        server.createContext("/check_token", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                checkTokenRequests.incrementAndGet();
+                String token = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next()
+                                .replace("token=", "");
+                if (revokedTokens.contains(token)) {
+                    respond(exchange, 400, Collections.singletonMap("error", "invalid_token"));
+                } else {
+                    respond(exchange, 200, Collections.singletonMap(Claims.CLIENT_ID, "app"));
+                }
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        services.setClientId("app");
+        services.setClientSecret("appclientsecret");
+        services.setCheckTokenEndpointUrl(baseUrl + "/check_token");
+        services.setTokenKeyEndpointUrl(baseUrl + "/token_keys");
+        services.setIssuer(ISSUER);
+        services.setResourceId("cloud_controller");
+        services.setKeyRefreshInterval(0);
+        services.setMaxConnections(4);
+        services.setConnectTimeout(5000);
+        services.setReadTimeout(5000);
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        services.destroy();
+        server.stop(0);
+    }
+
+    private Map<String, String> key(String kid, String value) {
+        Map<String, String> key = new LinkedHashMap<String, String>();
+        key.put("kid", kid);
+        key.put("alg", "HMACSHA256");
+        key.put("value", value);
+        key.put("kty", "MAC");
+        key.put("use", "sig");
+        return key;
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private Map<String, Object> claims() {
+        Map<String, Object> claims = new LinkedHashMap<String, Object>();
+        claims.put(Claims.JTI, UUID.randomUUID().toString());
+        claims.put(Claims.SUB, "HDGFJSHGDF");
+        claims.put(Claims.SCOPE, Arrays.asList("cloud_controller.read"));
+        claims.put(Claims.CLIENT_ID, "remote");
+        claims.put(Claims.USER_ID, "HDGFJSHGDF");
+        claims.put(Claims.USER_NAME, "olds");
+        claims.put(Claims.EMAIL, "olds@vmware.com");
+        claims.put(Claims.EXP, System.currentTimeMillis() / 1000 + 3600);
+        claims.put(Claims.ISS, ISSUER);
+        claims.put(Claims.AUD, Arrays.asList("cloud_controller"));
+        return claims;
+    }
+
+    private String token(String kid, String secret, Map<String, Object> claims) {
+        SignerProvider signerProvider = new SignerProvider();
+        signerProvider.setSigningKey(secret);
+        signerProvider.setKeyId(kid);
+        return signerProvider.getTokenWriter().write(claims);
+    }
+
+    private void assertRejected(String token) {
+        try {
+            services.loadAuthentication(token);
+            fail("Expected an InvalidTokenException");
+        } catch (InvalidTokenException expected) {
+        }
+    }
+
+    @Test
+    public void testTokensAreVerifiedWithoutCallingCheckToken() throws Exception {
+        services.afterPropertiesSet();
+        OAuth2Authentication result = services.loadAuthentication(token("key-1", "key1secret", claims()));
+        assertNotNull(result);
+        assertEquals("remote", result.getOAuth2Request().getClientId());
+        assertEquals("olds", result.getUserAuthentication().getName());
+        assertEquals("HDGFJSHGDF", ((RemoteUserAuthentication) result.getUserAuthentication()).getId());
+        services.loadAuthentication(token("key-1", "key1secret", claims()));
+        assertEquals(1, tokenKeyRequests.get());
+        assertEquals(0, checkTokenRequests.get());
+        assertEquals("Basic YXBwOmFwcGNsaWVudHNlY3JldA==", authorizations.get(0));
+    }
+
+    @Test
+    public void testTheSingleKeyOfTokenKeyIsUsed() throws Exception {
+        services.setTokenKeyEndpointUrl(baseUrl + "/token_key");
+        services.loadAuthentication(token("key-1", "key1secret", claims()));
+        // tokens issued before key ids were configured
+        services.loadAuthentication(token(null, "key1secret", claims()));
+        assertEquals(1, tokenKeyRequests.get());
+    }
+
+    @Test
+    public void testInvalidTokensAreRejected() throws Exception {
+        Map<String, Object> expired = claims();
+        expired.put(Claims.EXP, System.currentTimeMillis() / 1000 - 1);
+        assertRejected(token("key-1", "key1secret", expired));
+
+        Map<String, Object> noExpiry = claims();
+        noExpiry.remove(Claims.EXP);
+        assertRejected(token("key-1", "key1secret", noExpiry));
+
+        Map<String, Object> otherIssuer = claims();
+        otherIssuer.put(Claims.ISS, "http://other/uaa/oauth/token");
+        assertRejected(token("key-1", "key1secret", otherIssuer));
+
+        Map<String, Object> otherAudience = claims();
+        otherAudience.put(Claims.AUD, Arrays.asList("scim"));
+        assertRejected(token("key-1", "key1secret", otherAudience));
+
+        assertRejected(token("key-1", "forged", claims()));
+        assertRejected(token(null, "forged", claims()));
+        assertRejected("not-a-token");
+        assertEquals(0, checkTokenRequests.get());
+    }
+
+    @Test
+    public void testKeysAreFetchedAgainForANewKeyId() throws Exception {
+        services.setMinKeyRefreshInterval(0);
+        services.loadAuthentication(token("key-1", "key1secret", claims()));
+
+        Map<String, String> rotated = new LinkedHashMap<String, String>();
+        rotated.put("key-2", "key2secret");
+        rotated.put("key-1", "key1secret");
+        serverKeys = rotated;
+        services.loadAuthentication(token("key-2", "key2secret", claims()));
+        services.loadAuthentication(token("key-1", "key1secret", claims()));
+        assertEquals(2, tokenKeyRequests.get());
+
+        assertRejected(token("key-3", "key3secret", claims()));
+        assertEquals(3, tokenKeyRequests.get());
+    }
+
+    @Test
+    public void testUnknownKeyIdsDoNotFetchTheKeysOverAndOver() throws Exception {
+        services.setMinKeyRefreshInterval(60000);
+        services.loadAuthentication(token("key-1", "key1secret", claims()));
+        assertRejected(token("key-3", "key3secret", claims()));
+        assertRejected(token("key-4", "key4secret", claims()));
+        assertEquals(1, tokenKeyRequests.get());
+    }
+
+    @Test
+    public void testFailedKeyFetchesRejectTokensAndAreNotRepeatedStraightAway() throws Exception {
+        services.setMinKeyRefreshInterval(60000);
+        tokenKeysStatus = 500;
+        String token = token("key-1", "key1secret", claims());
+        assertRejected(token);
+        assertRejected(token);
+        assertEquals(1, tokenKeyRequests.get());
+
+        tokenKeysStatus = 200;
+        services.setMinKeyRefreshInterval(0);
+        assertNotNull(services.loadAuthentication(token));
+        assertEquals(2, tokenKeyRequests.get());
+    }
+
+    @Test
+    public void testRevokedTokensAreRejectedAfterTheBackgroundCheck() throws Exception {
+        services.setCheckRevocation(true);
+        services.afterPropertiesSet();
+        String token = token("key-1", "key1secret", claims());
+        revokedTokens.add(token);
+        // accepted until the server has been asked
+        services.loadAuthentication(token);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                services.loadAuthentication(token);
+            } catch (InvalidTokenException e) {
+                break;
+            }
+            if (System.currentTimeMillis() > timeout) {
+                fail("Revoked token was still accepted");
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(1, checkTokenRequests.get());
+
+        String other = token("key-1", "key1secret", claims());
+        services.loadAuthentication(other);
+        services.loadAuthentication(other);
+        timeout = System.currentTimeMillis() + 5000;
+        while (checkTokenRequests.get() < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        services.loadAuthentication(other);
+        assertEquals(2, checkTokenRequests.get());
+    }
+}
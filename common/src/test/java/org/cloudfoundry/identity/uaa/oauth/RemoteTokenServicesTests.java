@@ -14,10 +14,15 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Test;
@@ -26,6 +31,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
@@ -44,6 +50,12 @@ public class RemoteTokenServicesTests {
 
     private HttpStatus status = HttpStatus.OK;
 
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile CountDownLatch responseLatch = new CountDownLatch(0);
+
     public RemoteTokenServicesTests() {
         services.setClientId("client");
         services.setClientSecret("secret");
@@ -56,6 +68,13 @@ public class RemoteTokenServicesTests {
             @Override
             public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
                             Class<T> responseType, Object... uriVariables) throws RestClientException {
+                requests.incrementAndGet();
+                authorizations.add(requestEntity.getHeaders().getFirst("Authorization"));
+                try {
+                    responseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
                 return new ResponseEntity<T>((T) body, headers, status);
             }
         });
@@ -98,4 +117,117 @@ public class RemoteTokenServicesTests {
         assertEquals(mapper.writeValueAsString(additionalAuthorizationAttributesMap), result.getOAuth2Request()
                         .getRequestParameters().get(Claims.ADDITIONAL_AZ_ATTR));
     }
+
+    @Test
+    public void testResponsesAreNotCachedByDefault() throws Exception {
+        services.afterPropertiesSet();
+        services.loadAuthentication("FOO");
+        services.loadAuthentication("FOO");
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testAcceptedTokensAreCached() throws Exception {
+        services.setCacheTimeToLive(60000);
+        services.afterPropertiesSet();
+        services.loadAuthentication("FOO");
+        OAuth2Authentication result = services.loadAuthentication("FOO");
+        assertEquals("olds", result.getUserAuthentication().getName());
+        assertEquals(1, requests.get());
+        services.loadAuthentication("BAR");
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testAcceptedTokensAreNotCachedPastTheirExpiry() throws Exception {
+        services.setCacheTimeToLive(60000);
+        services.afterPropertiesSet();
+        body.put(Claims.EXP, System.currentTimeMillis() / 1000);
+        services.loadAuthentication("FOO");
+        services.loadAuthentication("FOO");
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testRejectedTokensAreCachedForTheNegativeTimeToLive() throws Exception {
+        services.setCacheTimeToLive(60000);
+        services.setNegativeCacheTimeToLive(60000);
+        services.afterPropertiesSet();
+        body.clear();
+        body.put("error", "invalid_token");
+        status = HttpStatus.BAD_REQUEST;
+        assertRejected("FOO");
+        assertRejected("FOO");
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testRejectedTokensAreNotCachedWithoutANegativeTimeToLive() throws Exception {
+        services.setCacheTimeToLive(60000);
+        services.afterPropertiesSet();
+        body.clear();
+        body.put("error", "invalid_token");
+        status = HttpStatus.BAD_REQUEST;
+        assertRejected("FOO");
+        assertRejected("FOO");
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testConcurrentChecksOfTheSameTokenShareOneRequest() throws Exception {
+        services.afterPropertiesSet();
+        responseLatch = new CountDownLatch(1);
+        final AtomicInteger accepted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (services.loadAuthentication("FOO") != null) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long timeout = System.currentTimeMillis() + 5000;
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                if (System.currentTimeMillis() > timeout) {
+                    fail("Checks did not start");
+                }
+                Thread.sleep(10);
+            }
+        }
+        responseLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(4, accepted.get());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testAuthorizationHeaderFollowsTheCredentials() throws Exception {
+        services.loadAuthentication("FOO");
+        services.setClientSecret("other");
+        services.loadAuthentication("FOO");
+        assertEquals("Basic Y2xpZW50OnNlY3JldA==", authorizations.get(0));
+        assertEquals("Basic Y2xpZW50Om90aGVy", authorizations.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPoolSettingsCannotBeUsedWithACustomRestTemplate() throws Exception {
+        services.setMaxConnections(50);
+        services.afterPropertiesSet();
+    }
+
+    private void assertRejected(String token) {
+        try {
+            services.loadAuthentication(token);
+            fail("Expected an InvalidTokenException");
+        } catch (InvalidTokenException expected) {
+        }
+    }
 }
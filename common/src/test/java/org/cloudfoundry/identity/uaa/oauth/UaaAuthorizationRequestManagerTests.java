@@ -24,6 +24,7 @@ import java.util.TreeSet;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.security.StubSecurityContextAccessor;
 import org.junit.Before;
@@ -240,6 +241,27 @@ public class UaaAuthorizationRequestManagerTests {
         factory.validateParameters(parameters, new BaseClientDetails("foo", null, "read,write,space.*.developer", "implicit", null));
     }
 
+    @Test
+    public void testScopesValidatedAgainstChangedClient() throws Exception {
+        parameters.put("scope","space.1.developer");
+        factory.validateParameters(parameters, new BaseClientDetails("foo", null, "space.*.developer", "implicit", null));
+        try {
+            factory.validateParameters(parameters, new BaseClientDetails("foo", null, "space.*.admin", "implicit", null));
+            fail("Expected InvalidScopeException");
+        } catch (InvalidScopeException e) {
+            // expected
+        }
+        parameters.put("scope","space.1.admin");
+        factory.validateParameters(parameters, new BaseClientDetails("foo", null, "space.*.admin", "implicit", null));
+    }
+
+    @Test
+    public void testScopesValidWithoutCachedMatchers() throws Exception {
+        factory.setMaxCachedClients(0);
+        parameters.put("scope","read space.1.developer");
+        factory.validateParameters(parameters, new BaseClientDetails("foo", null, "read,write,space.*.developer", "implicit", null));
+    }
+
     @Test(expected = InvalidScopeException.class)
     public void testScopesInvalid() throws Exception {
         parameters.put("scope", "admin");
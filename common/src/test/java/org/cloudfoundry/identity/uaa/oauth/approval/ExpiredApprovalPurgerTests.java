@@ -0,0 +1,97 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.approval;
+
+import static org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus.APPROVED;
+import static org.junit.Assert.assertEquals;
+
+import org.cloudfoundry.identity.uaa.db.JdbcTaskLock;
+import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.rest.jdbc.SimpleSearchQueryConverter;
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiredApprovalPurgerTests extends JdbcTestBase {
+
+    private JdbcApprovalStore store;
+
+    private ExpiredApprovalPurger purger1;
+
+    private ExpiredApprovalPurger purger2;
+
+    @Before
+    public void initPurgers() throws Exception {
+        store = new JdbcApprovalStore(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter),
+                        new SimpleSearchQueryConverter());
+        purger1 = purger("node1");
+        purger2 = purger("node2");
+        store.addApproval(new Approval("u1", "c1", "uaa.user", 60000, APPROVED));
+        for (int i = 0; i < 3; i++) {
+            store.addApproval(new Approval("u1", "c1", "test" + i, 0, APPROVED));
+        }
+        Thread.sleep(500);
+    }
+
+    private ExpiredApprovalPurger purger(String holder) throws Exception {
+        JdbcTaskLock lock = new JdbcTaskLock(jdbcTemplate);
+        lock.setHolder(holder);
+        ExpiredApprovalPurger purger = new ExpiredApprovalPurger(store);
+        purger.setTaskLock(lock);
+        purger.setChunkSize(2);
+        purger.setEnabled(false);
+        purger.afterPropertiesSet();
+        return purger;
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        TestUtils.deleteFrom(dataSource, "authz_approvals", "task_lock");
+    }
+
+    @Test
+    public void testPurgeDeletesExpiredApprovals() {
+        assertEquals(3, purger1.purge());
+        assertEquals(1, store.getApprovals("user_id pr").size());
+        assertEquals(1, purger1.getPurgeCount());
+        assertEquals(3, purger1.getPurgedApprovalCount());
+        assertEquals(0, purger1.getPurgeFailureCount());
+    }
+
+    @Test
+    public void testOnlyOneNodePurges() throws Exception {
+        assertEquals(3, purger1.purge());
+        store.addApproval(new Approval("u1", "c1", "test", 0, APPROVED));
+        Thread.sleep(50);
+        assertEquals(0, purger2.purge());
+        assertEquals(1, purger2.getSkippedPurgeCount());
+        assertEquals(0, purger2.getPurgeCount());
+        assertEquals(2, store.getApprovals("user_id pr").size());
+        assertEquals(1, purger1.purge());
+    }
+
+    @Test
+    public void testAnotherNodePurgesOnceTheLockIsReleased() throws Exception {
+        ExpiredApprovalPurger scheduled = purger("node3");
+        scheduled.setEnabled(true);
+        scheduled.setPurgeInterval(60000);
+        scheduled.afterPropertiesSet();
+        assertEquals(3, scheduled.purge());
+        assertEquals(0, purger2.purge());
+        scheduled.destroy();
+        assertEquals(0, purger2.purge());
+        assertEquals(1, purger2.getPurgeCount());
+    }
+}
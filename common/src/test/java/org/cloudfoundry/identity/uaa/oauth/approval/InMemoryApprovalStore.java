@@ -13,7 +13,10 @@
 package org.cloudfoundry.identity.uaa.oauth.approval;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 
@@ -29,6 +32,11 @@ public class InMemoryApprovalStore implements ApprovalStore {
         return store.add(approval);
     }
 
+    @Override
+    public boolean addApprovals(Collection<Approval> approvals) {
+        return store.addAll(approvals);
+    }
+
     @Override
     public boolean revokeApproval(Approval approval) {
         for (Approval a : store) {
@@ -62,4 +70,18 @@ public class InMemoryApprovalStore implements ApprovalStore {
         return returnList;
     }
 
+    @Override
+    public Map<String, List<Approval>> getApprovalsByUser(Collection<String> userIds) {
+        Map<String, List<Approval>> result = new HashMap<String, List<Approval>>();
+        for (String userId : userIds) {
+            result.put(userId, new ArrayList<Approval>());
+        }
+        for (Approval a : store) {
+            if (result.containsKey(a.getUserId())) {
+                result.get(a.getUserId()).add(a);
+            }
+        }
+        return result;
+    }
+
 }
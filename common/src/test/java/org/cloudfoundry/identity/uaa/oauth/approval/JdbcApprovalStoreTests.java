@@ -13,8 +13,10 @@
 package org.cloudfoundry.identity.uaa.oauth.approval;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus.APPROVED;
 import static org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus.DENIED;
@@ -45,6 +47,7 @@ public class JdbcApprovalStoreTests extends JdbcTestBase {
 
         dao = new JdbcApprovalStore(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter),
                         new SimpleSearchQueryConverter());
+        dao.setPlatform(webApplicationContext.getBean("platform", String.class));
 
         eventPublisher = TestApplicationEventPublisher.forEventClass(ApprovalModifiedEvent.class);
         dao.setApplicationEventPublisher(eventPublisher);
@@ -99,6 +102,16 @@ public class JdbcApprovalStoreTests extends JdbcTestBase {
         assertEquals(1, dao.getApprovals("u1", "c1").size());
     }
 
+    @Test
+    public void canGetApprovalsOfManyUsers() {
+        Map<String, List<Approval>> approvals = dao.getApprovalsByUser(Arrays.asList("u1", "u2", "u3"));
+        assertEquals(3, approvals.size());
+        assertEquals(2, approvals.get("u1").size());
+        assertEquals(1, approvals.get("u2").size());
+        assertEquals("openid", approvals.get("u2").get(0).getScope());
+        assertEquals(0, approvals.get("u3").size());
+    }
+
     @Test
     public void canAddApproval() {
         assertTrue(dao.addApproval(new Approval("u2", "c2", "dash.user", 12000, APPROVED)));
@@ -110,6 +123,50 @@ public class JdbcApprovalStoreTests extends JdbcTestBase {
         assertEquals(APPROVED, app.getStatus());
     }
 
+    @Test
+    public void canAddApprovalsInOneBatch() {
+        checkAddApprovals();
+    }
+
+    @Test
+    public void canAddApprovalsWithoutUpsert() {
+        dao.setPlatform(null);
+        checkAddApprovals();
+    }
+
+    @Test
+    public void canAddApprovalsWhenTheServerIsTooOldForTheUpsert() {
+        // unless the database is PostgreSQL 9.5 or later the upsert is not used
+        dao.setPlatform("postgresql");
+        checkAddApprovals();
+        addApproval("u1", "c2", "uaa.admin", 12000, APPROVED);
+        assertEquals(APPROVED, dao.getApprovals("u1", "c2").get(0).getStatus());
+    }
+
+    private void checkAddApprovals() {
+        eventPublisher.clearEvents();
+        Approval refreshed = new Approval("u1", "c1", "uaa.user", 12000, DENIED);
+        Approval added = new Approval("u1", "c1", "openid", 12000, APPROVED);
+        Approval other = new Approval("u3", "c1", "openid", 12000, APPROVED);
+        assertTrue(dao.addApprovals(Arrays.asList(refreshed, added, other)));
+
+        List<Approval> approvals = dao.getApprovals("u1", "c1");
+        assertEquals(2, approvals.size());
+        for (Approval approval : approvals) {
+            assertEquals("uaa.user".equals(approval.getScope()) ? DENIED : APPROVED, approval.getStatus());
+            assertEquals(Math.round(added.getExpiresAt().getTime() / 1000),
+                            Math.round(approval.getExpiresAt().getTime() / 1000));
+        }
+        assertEquals(1, dao.getApprovals("u3", "c1").size());
+
+        // one event for each approval, as for a single one
+        assertEquals(3, eventPublisher.getEventCount());
+        assertEquals(refreshed, eventPublisher.getEvents().get(0).getSource());
+        assertEquals(other, eventPublisher.getEvents().get(2).getSource());
+        assertEquals("{\"scope\":\"uaa.user\",\"status\":\"DENIED\"}",
+                        eventPublisher.getEvents().get(0).getAuditEvent().getData());
+    }
+
     @Test
     public void canRevokeApprovals() {
         assertEquals(2, dao.getApprovals("user_id eq \"u1\"").size());
@@ -168,6 +225,17 @@ public class JdbcApprovalStoreTests extends JdbcTestBase {
         assertEquals(3, remainingApprovals.size());
     }
 
+    @Test
+    public void canPurgeExpiredApprovalsInChunks() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            addApproval("u3", "c3", "test" + i, 0, APPROVED);
+        }
+        Thread.sleep(500);
+        assertEquals(5, dao.purgeExpiredApprovals(2));
+        assertEquals(3, dao.getApprovals("user_id pr").size());
+        assertEquals(0, dao.purgeExpiredApprovals(2));
+    }
+
     @Test
     public void testAddingAndUpdatingAnApprovalPublishesEvents() throws Exception {
         UaaTestAccounts testAccounts = UaaTestAccounts.standard(null);
@@ -14,6 +14,10 @@ package org.cloudfoundry.identity.uaa.oauth.token;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.security.access.AccessDeniedException;
@@ -53,4 +57,40 @@ public class TokenKeyEndpointTests {
                                                         .createAuthorityList("ROLE_ANONYMOUS"))).toString());
     }
 
+    @Test
+    public void allVerificationKeysAreReturnedFromTokenKeysEndpoint() throws Exception {
+        signerProvider.setSigningKey("key2secret");
+        signerProvider.setKeyId("key-2");
+        signerProvider.setVerificationKeys(Collections.singletonMap("key-1", "key1secret"));
+        List<Map<String, String>> keys = tokenEnhancer.getKeys(new UsernamePasswordAuthenticationToken("foo", "bar"))
+                        .get("keys");
+        assertEquals(2, keys.size());
+        assertEquals("{kid=key-2, alg=HMACSHA256, value=key2secret, kty=MAC, use=sig}", keys.get(0).toString());
+        assertEquals("{kid=key-1, alg=HMACSHA256, value=key1secret, kty=MAC, use=sig}", keys.get(1).toString());
+        assertEquals(keys.get(0), tokenEnhancer.getKey(new UsernamePasswordAuthenticationToken("foo", "bar")));
+    }
+
+    @Test
+    public void sharedSecretsAreLeftOutOfTokenKeysForAnonymousCallers() throws Exception {
+        signerProvider.setSigningKey("key2secret");
+        signerProvider.setKeyId("key-2");
+        signerProvider.setVerificationKeys(Collections.singletonMap("key-1", "-----BEGIN RSA PUBLIC KEY-----\n" +
+                        "MIGJAoGBAMStmxljvRABrtZ0MPp46/dEsEDgjknTNk6JczOgUHnKHrirSyYRI21X\n" +
+                        "ilrI5gTlOcfFaMyjTLuAOwaMjWiYAbrCB/Knrcj1ZwtfsUMvJ57jd8bn5v2uih+i\n" +
+                        "wv47MlJcRJK6WxP1jVfFIUUzlEy7gh724zj+LMosKwAqKCAyGcCZAgMBAAE=\n" +
+                        "-----END RSA PUBLIC KEY-----"));
+        List<Map<String, String>> keys = tokenEnhancer.getKeys(
+                        new AnonymousAuthenticationToken("anon", "anonymousUser", AuthorityUtils
+                                        .createAuthorityList("ROLE_ANONYMOUS"))).get("keys");
+        assertEquals(1, keys.size());
+        assertEquals("key-1", keys.get(0).get("kid"));
+        assertEquals("RSA", keys.get(0).get("kty"));
+        assertEquals("AQAB", keys.get(0).get("e"));
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void tokenKeysCannotBeAnonymouslyRetrievedIfAllAreShared() throws Exception {
+        signerProvider.setSigningKey("key2secret");
+        tokenEnhancer.getKeys(null);
+    }
 }
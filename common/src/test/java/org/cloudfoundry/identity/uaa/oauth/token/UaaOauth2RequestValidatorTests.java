@@ -0,0 +1,71 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.security.oauth2.common.exceptions.InvalidScopeException;
+import org.springframework.security.oauth2.common.util.OAuth2Utils;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+public class UaaOauth2RequestValidatorTests {
+
+    private UaaOauth2RequestValidator validator = new UaaOauth2RequestValidator();
+
+    @Test
+    public void testScopesValidWithWildcard() throws Exception {
+        validator.validateScope(request("password", "read space.1.developer"),
+                        new BaseClientDetails("foo", null, "read,space.*.developer", "password", null));
+    }
+
+    @Test(expected = InvalidScopeException.class)
+    public void testScopesInvalidWithWildcard() throws Exception {
+        validator.validateScope(request("password", "space.1.admin"),
+                        new BaseClientDetails("foo", null, "read,space.*.developer", "password", null));
+    }
+
+    @Test
+    public void testScopesValidatedAgainstChangedClient() throws Exception {
+        validator.validateScope(request("password", "space.1.developer"),
+                        new BaseClientDetails("foo", null, "space.*.developer", "password", null));
+        try {
+            validator.validateScope(request("password", "space.1.developer"),
+                            new BaseClientDetails("foo", null, "space.*.admin", "password", null));
+            fail("Expected InvalidScopeException");
+        } catch (InvalidScopeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScopesValidWithoutCachedMatchers() throws Exception {
+        validator.setMaxCachedClients(0);
+        validator.validateScope(request("password", "space.1.developer"),
+                        new BaseClientDetails("foo", null, "space.*.developer", "password", null));
+    }
+
+    @Test(expected = InvalidScopeException.class)
+    public void testAuthoritiesAreNotWildcards() throws Exception {
+        validator.validateScope(request("client_credentials", "space.1.developer"),
+                        new BaseClientDetails("foo", null, null, "client_credentials", "space.*.developer"));
+    }
+
+    private TokenRequest request(String grantType, String scope) {
+        return new TokenRequest(Collections.<String, String> emptyMap(), "foo", OAuth2Utils.parseParameterList(scope),
+                        grantType);
+    }
+}
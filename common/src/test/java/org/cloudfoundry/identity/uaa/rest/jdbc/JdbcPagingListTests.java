@@ -12,6 +12,8 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.rest.jdbc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -26,6 +28,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 public class JdbcPagingListTests extends JdbcTestBase {
 
@@ -157,4 +160,62 @@ public class JdbcPagingListTests extends JdbcTestBase {
         assertEquals(3, count); // count is less than original size estimate
     }
 
+    @Test
+    public void testKeysetIterationOverPages() throws Exception {
+        list = keysetList("SELECT * from foo where id>=:id", new KeysetPaging("id"), 2);
+        assertEquals(Arrays.asList("foo", "bar", "baz", "zab", "rab"), names(list));
+        assertEquals(5, list.size());
+    }
+
+    @Test
+    public void testKeysetOrderByDescending() throws Exception {
+        list = keysetList("SELECT * from foo where id>=:id ORDER BY name DESC", new KeysetPaging("id"), 2);
+        assertEquals(Arrays.asList("zab", "rab", "foo", "baz", "bar"), names(list));
+    }
+
+    @Test
+    public void testKeysetOrderByNullableColumn() throws Exception {
+        jdbcTemplate.execute("alter table foo add column nick varchar(10)");
+        jdbcTemplate.execute("update foo set nick='b' where id in (1, 3)");
+        jdbcTemplate.execute("update foo set nick='a' where id=4");
+        for (String order : new String[] {"ASC", "DESC"}) {
+            String sql = "SELECT * from foo where id>=:id ORDER BY nick " + order;
+            List<Map<String, Object>> expected = new JdbcPagingList<Map<String, Object>>(jdbcTemplate,
+                            limitSqlAdapter, sql + ", id " + order, Collections.singletonMap("id", 0),
+                            new ColumnMapRowMapper(), 100);
+            list = keysetList(sql, new KeysetPaging("id"), 2);
+            assertEquals(names(expected), names(list));
+        }
+    }
+
+    @Test
+    public void testKeysetListsSeeRowsChangedSinceEarlierLists() throws Exception {
+        KeysetPaging keyset = new KeysetPaging("id");
+        list = keysetList("SELECT * from foo where id>=:id", keyset, 3);
+        assertEquals(5, list.size());
+        assertEquals("zab", list.get(3).get("name"));
+        jdbcTemplate.update("DELETE from foo where id=0");
+        list = keysetList("SELECT * from foo where id>=:id", keyset, 3);
+        assertEquals(4, list.size());
+        assertEquals("rab", list.get(3).get("name"));
+        jdbcTemplate.update("INSERT into foo (id, name) values (5, 'oof')");
+        list = keysetList("SELECT * from foo where id>=:id", keyset, 3);
+        assertEquals(5, list.size());
+        assertEquals("oof", list.subList(0, 5).get(4).get("name"));
+    }
+
+    private List<Map<String, Object>> keysetList(String sql, KeysetPaging keyset, int pageSize) {
+        return new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), limitSqlAdapter,
+                        sql, Collections.<String, Object> singletonMap("id", 0), new ColumnMapRowMapper(), pageSize,
+                        keyset);
+    }
+
+    private List<String> names(List<Map<String, Object>> list) {
+        List<String> names = new ArrayList<String>();
+        for (Map<String, Object> map : list) {
+            names.add((String) map.get("name"));
+        }
+        return names;
+    }
+
 }
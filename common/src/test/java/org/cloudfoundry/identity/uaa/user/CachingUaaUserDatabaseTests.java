@@ -0,0 +1,138 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+
+import org.cloudfoundry.identity.uaa.audit.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.audit.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.authentication.Origin;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+public class CachingUaaUserDatabaseTests {
+
+    private UaaUserDatabase delegate = mock(UaaUserDatabase.class);
+
+    private CachingUaaUserDatabase database = new CachingUaaUserDatabase(delegate, 10, 60);
+
+    private UaaUser user = new UaaUser("id", "Marissa", "", "marissa@test.org", UaaAuthority.USER_AUTHORITIES, "Marissa",
+                    "Bloggs", new Date(), new Date(), Origin.UAA, null, true);
+
+    @Before
+    public void setUp() {
+        database.setEnabled(true);
+        when(delegate.retrieveUserById("id")).thenReturn(user);
+        when(delegate.retrieveUserByName("marissa", Origin.UAA)).thenReturn(user);
+        when(delegate.retrieveUserByName("MARISSA", Origin.UAA)).thenReturn(user);
+    }
+
+    @Test
+    public void testUserIsLoadedOnceById() {
+        assertSame(user, database.retrieveUserById("id"));
+        assertSame(user, database.retrieveUserById("id"));
+        verify(delegate, times(1)).retrieveUserById("id");
+        assertEquals(1, database.getHitCount());
+        assertEquals(1, database.getSize());
+    }
+
+    @Test
+    public void testUserLoadedByNameIsCachedByIdAndByNameInAnyCase() {
+        assertSame(user, database.retrieveUserByName("marissa", Origin.UAA));
+        assertSame(user, database.retrieveUserByName("MARISSA", Origin.UAA));
+        assertSame(user, database.retrieveUserById("id"));
+        verify(delegate, times(1)).retrieveUserByName("marissa", Origin.UAA);
+        verify(delegate, times(0)).retrieveUserByName("MARISSA", Origin.UAA);
+        verify(delegate, times(0)).retrieveUserById("id");
+    }
+
+    @Test
+    public void testUsersFromOtherOriginsAreNotConfused() {
+        when(delegate.retrieveUserByName("marissa", Origin.LDAP)).thenThrow(new UsernameNotFoundException("marissa"));
+        database.retrieveUserByName("marissa", Origin.UAA);
+        try {
+            database.retrieveUserByName("marissa", Origin.LDAP);
+        } catch (UsernameNotFoundException e) {
+            // expected
+        }
+        verify(delegate, times(1)).retrieveUserByName("marissa", Origin.LDAP);
+    }
+
+    @Test
+    public void testModifiedUserIsLoadedAgain() {
+        database.retrieveUserById("id");
+        database.retrieveUserByName("marissa", Origin.UAA);
+        database.onApplicationEvent(UserModifiedEvent.userModified("id", "marissa"));
+        database.retrieveUserById("id");
+        database.retrieveUserByName("marissa", Origin.UAA);
+        verify(delegate, times(2)).retrieveUserById("id");
+        verify(delegate, times(1)).retrieveUserByName("marissa", Origin.UAA);
+    }
+
+    @Test
+    public void testRenamedUserIsNotFoundByItsOldName() {
+        database.retrieveUserByName("marissa", Origin.UAA);
+        UaaUser renamed = new UaaUser("id", "mbloggs", "", "marissa@test.org", UaaAuthority.USER_AUTHORITIES, "Marissa",
+                        "Bloggs", new Date(), new Date(), Origin.UAA, null, true);
+        when(delegate.retrieveUserById("id")).thenReturn(renamed);
+        when(delegate.retrieveUserByName("marissa", Origin.UAA)).thenThrow(new UsernameNotFoundException("marissa"));
+        database.onApplicationEvent(UserModifiedEvent.userModified("id", "mbloggs"));
+        assertSame(renamed, database.retrieveUserById("id"));
+        try {
+            database.retrieveUserByName("marissa", Origin.UAA);
+        } catch (UsernameNotFoundException e) {
+            // expected
+        }
+        verify(delegate, times(2)).retrieveUserByName("marissa", Origin.UAA);
+    }
+
+    @Test
+    public void testGroupChangesEvictEveryUser() {
+        database.retrieveUserById("id");
+        database.onApplicationEvent(GroupModifiedEvent.groupModified("gid", "uaa.admin", new String[0]));
+        assertEquals(0, database.getSize());
+        database.retrieveUserById("id");
+        verify(delegate, times(2)).retrieveUserById("id");
+    }
+
+    @Test
+    public void testDisabledCacheAlwaysDelegates() {
+        database.setEnabled(false);
+        database.retrieveUserById("id");
+        database.retrieveUserById("id");
+        verify(delegate, times(2)).retrieveUserById("id");
+        assertEquals(0, database.getSize());
+    }
+
+    @Test
+    public void testUnknownUserIsNotCached() {
+        when(delegate.retrieveUserById("other")).thenThrow(new UsernameNotFoundException("other"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                database.retrieveUserById("other");
+            } catch (UsernameNotFoundException e) {
+                // expected
+            }
+        }
+        verify(delegate, times(2)).retrieveUserById("other");
+        assertEquals(0, database.getSize());
+    }
+}
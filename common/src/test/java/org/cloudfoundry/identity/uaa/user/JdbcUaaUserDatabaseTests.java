@@ -12,11 +12,15 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.user;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.cloudfoundry.identity.uaa.authentication.Origin;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
@@ -24,6 +28,7 @@ import org.cloudfoundry.identity.uaa.test.TestUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
@@ -100,6 +105,62 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
         db.retrieveUserByName("jo", Origin.UAA);
     }
 
+    @Test
+    public void getUserWithGroupsInOneQuery() {
+        template.update("insert into groups (id, displayName) values ('g1', 'cloud_controller.read')");
+        template.update("insert into groups (id, displayName) values ('g2', 'scim.me')");
+        template.update("insert into group_membership (group_id, member_id) values ('g1', ?)", JOE_ID);
+        template.update("insert into group_membership (group_id, member_id) values ('g2', ?)", JOE_ID);
+        db.setUserAuthoritiesQuery(" select g.displayName from groups g, group_membership m\n where g.id = m.group_id and m.member_id = ?\n");
+        UaaUser joe = db.retrieveUserById(JOE_ID);
+        db.setJoinGroupAuthorities(true);
+        UaaUser joined = db.retrieveUserById(JOE_ID);
+        assertEquals(3, joined.getAuthorities().size());
+        assertEquals(new HashSet<GrantedAuthority>(joe.getAuthorities()), new HashSet<GrantedAuthority>(joined.getAuthorities()));
+        assertEquals(joined.getAuthorities(), db.retrieveUserByName("JOE", Origin.UAA).getAuthorities());
+        assertEquals(joe.getEmail(), joined.getEmail());
+        assertEquals(joe.getModified(), joined.getModified());
+        UaaUser mabel = db.retrieveUserByName("mabel", Origin.UAA);
+        assertEquals(Collections.singletonList(new SimpleGrantedAuthority("uaa.user")), mabel.getAuthorities());
+    }
+
+    @Test
+    public void groupsAreNotJoinedForOtherAuthoritiesQueries() {
+        template.update("insert into groups (id, displayName) values ('g1', 'cloud_controller.read')");
+        template.update("insert into group_membership (group_id, member_id) values ('g1', ?)", JOE_ID);
+        addAuthority("dash.admin", JOE_ID);
+        db.setJoinGroupAuthorities(true);
+        UaaUser byId = db.retrieveUserById(JOE_ID);
+        assertEquals(db.retrieveUserByName("joe", Origin.UAA).getAuthorities(), byId.getAuthorities());
+        assertTrue(byId.getAuthorities().contains(new SimpleGrantedAuthority("dash.admin")));
+        assertFalse(byId.getAuthorities().contains(new SimpleGrantedAuthority("cloud_controller.read")));
+        db.setUserAuthoritiesQuery("select 'custom.read' from users where id = ?");
+        assertEquals(Arrays.asList(new SimpleGrantedAuthority("custom.read"), new SimpleGrantedAuthority("uaa.user")),
+                        db.retrieveUserById(JOE_ID).getAuthorities());
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void getNonExistentUserWithGroupsRaisedNotFoundException() {
+        db.setUserAuthoritiesQuery(JdbcUaaUserDatabase.DEFAULT_USER_AUTHORITIES_QUERY);
+        db.setJoinGroupAuthorities(true);
+        db.retrieveUserById("unknown");
+    }
+
+    @Test
+    public void authoritiesAreShared() {
+        UaaUser joe = db.retrieveUserByName("joe", Origin.UAA);
+        UaaUser mabel = db.retrieveUserByName("mabel", Origin.UAA);
+        assertSame(joe.getAuthorities().get(0), mabel.getAuthorities().get(0));
+    }
+
+    @Test
+    public void authoritiesAreTrimmedAndEmptyOnesIgnored() {
+        template.update(addAuthoritySql, " dash.admin, openid,,uaa.user ,", JOE_ID);
+        UaaUser joe = db.retrieveUserByName("joe", Origin.UAA);
+        assertEquals(Arrays.asList(new SimpleGrantedAuthority("dash.admin"), new SimpleGrantedAuthority("openid"),
+                        new SimpleGrantedAuthority("uaa.user")), joe.getAuthorities());
+    }
+
     @Test
     public void getUserWithExtraAuthorities() {
         addAuthority("dash.admin", JOE_ID);
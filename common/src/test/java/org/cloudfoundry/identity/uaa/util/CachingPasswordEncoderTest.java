@@ -14,7 +14,6 @@ package org.cloudfoundry.identity.uaa.util;
 
 import java.lang.reflect.Field;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
@@ -131,17 +130,19 @@ public class CachingPasswordEncoderTest  {
         String password = new RandomValueStringGenerator().generate();
         String encoded = cachingPasswordEncoder.encode(password);
         assertTrue(cachingPasswordEncoder.matches(password, encoded));
-        //overflow happened
-        assertEquals(0, cachingPasswordEncoder.getNumberOfKeys());
+        //overflow evicted only the least recently used key
+        assertEquals(maxkeys, cachingPasswordEncoder.getNumberOfKeys());
+        assertEquals(1, cachingPasswordEncoder.getEvictionCount());
 
-        for (int j=0; j<cachingPasswordEncoder.getMaxEncodedPasswords(); j++) {
+        //the new key already holds one encoded password
+        for (int j=1; j<cachingPasswordEncoder.getMaxEncodedPasswords(); j++) {
             encoded = cachingPasswordEncoder.encode(password);
             assertTrue(cachingPasswordEncoder.matches(password, encoded));
         }
 
         Field field = ReflectionUtils.findField(cachingPasswordEncoder.getClass(), "cache");
         field.setAccessible(true);
-        ConcurrentHashMap<CharSequence, Set<String>> cache = (ConcurrentHashMap<CharSequence, Set<String>>)ReflectionUtils.getField(
+        ExpiringLruCache<String, Set<String>> cache = (ExpiringLruCache<String, Set<String>>)ReflectionUtils.getField(
             field,
             cachingPasswordEncoder
         );
@@ -154,6 +155,18 @@ public class CachingPasswordEncoderTest  {
     }
 
 
+    @Test
+    public void testHitAndMissCounts() {
+        String password = new RandomValueStringGenerator().generate();
+        String encoded = cachingPasswordEncoder.encode(password);
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertEquals(2, cachingPasswordEncoder.getHitCount());
+        assertEquals(1, cachingPasswordEncoder.getMissCount());
+        assertEquals(2.0 / 3, cachingPasswordEncoder.getHitRatio(), 0.001);
+    }
+
     @Test
     public void testDisabledMatchesSpeedTest() throws Exception {
         int iterations = 100;
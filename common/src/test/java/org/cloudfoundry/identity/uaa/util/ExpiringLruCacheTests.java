@@ -0,0 +1,118 @@
+/*******************************************************************************
+ *     Cloud Foundry 
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiringLruCacheTests {
+
+    private long now = 1000000;
+
+    private ExpiringLruCache<String, String> cache;
+
+    @Before
+    public void setUp() {
+        cache = newCache(4, 1);
+    }
+
+    private ExpiringLruCache<String, String> newCache(int maxEntries, int concurrencyLevel) {
+        return new ExpiringLruCache<String, String>(maxEntries, 1000, concurrencyLevel) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testEntriesExpireAfterTimeToLive() {
+        cache.put("a", "1");
+        now += 999;
+        assertEquals("1", cache.get("a"));
+        now += 1;
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntriesExpireAtEarlierExplicitExpiry() {
+        cache.put("a", "1", now + 100);
+        now += 100;
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testAlreadyExpiredEntriesAreNotStored() {
+        cache.put("a", "1", now);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.put("d", "4");
+        cache.get("a");
+        cache.put("e", "5");
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("5", cache.get("e"));
+    }
+
+    @Test
+    public void testSizeIsBoundedAcrossSegments() {
+        cache = newCache(100, 16);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(1000 - cache.getEvictionCount(), cache.size());
+        assertEquals(true, cache.size() <= 112);
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsLiveEntry() {
+        assertNull(cache.putIfAbsent("a", "1"));
+        assertEquals("1", cache.putIfAbsent("a", "2"));
+        now += 1000;
+        assertNull(cache.putIfAbsent("a", "3"));
+        assertEquals("3", cache.get("a"));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2014] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ScopeMatcherTests {
+
+    private static final List<String> SCOPES = Arrays.asList("space.1.developer", "space.13242323423423423.developer",
+                    "space.1", "space.1.", ".1.developer", "1.developer", "space.1.developers", "spaces.1.developer",
+                    "space.1.developer.test", "test.space.1.developer", "space..developer", "space.1.deve.xloper",
+                    "openid", "uaa.user", "cloud_controller.read", "*", "", "a.b.c", "space.*.developer");
+
+    private static final List<String> PATTERNS = Arrays.asList("space.*.developer", "space.*.deve.*loper",
+                    "*.*.developer", "*.*.*", "*", "space.*", "*.developer", "space.1*", "space*.1.developer",
+                    "openid", "cloud_controller.*", "*.read", "a*b.c", "");
+
+    @Test
+    public void testMatchesLikeTheRegularExpressions() {
+        for (String pattern : PATTERNS) {
+            Set<String> patterns = Collections.singleton(pattern);
+            ScopeMatcher matcher = ScopeMatcher.of(patterns);
+            for (String scope : SCOPES) {
+                assertEquals(pattern + " matching " + scope,
+                                UaaStringUtils.matches(UaaStringUtils.constructWildcards(patterns), scope),
+                                matcher.matches(scope));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesAnyOfSeveralScopes() {
+        Set<String> patterns = new HashSet<>(PATTERNS);
+        ScopeMatcher matcher = ScopeMatcher.of(patterns);
+        for (String scope : SCOPES) {
+            assertEquals(scope, UaaStringUtils.matches(UaaStringUtils.constructWildcards(patterns), scope),
+                            matcher.matches(scope));
+        }
+    }
+
+    @Test
+    public void testWildcardDoesNotCrossPeriods() {
+        ScopeMatcher matcher = ScopeMatcher.of(Arrays.asList("space.*.developer"));
+        assertTrue(matcher.matches("space.1.developer"));
+        assertFalse(matcher.matches("space.1.2.developer"));
+        assertFalse(matcher.matches("space..developer"));
+    }
+
+    @Test
+    public void testNothingMatchesNoScopes() {
+        assertFalse(ScopeMatcher.of(null).matches("openid"));
+        assertFalse(ScopeMatcher.of(Arrays.asList("openid")).matches(null));
+    }
+
+    @Test
+    public void testIsForTheScopesItWasBuiltFrom() {
+        ScopeMatcher matcher = ScopeMatcher.of(Arrays.asList("openid", "space.*.developer"));
+        assertTrue(matcher.isFor(new HashSet<>(Arrays.asList("space.*.developer", "openid"))));
+        assertTrue(matcher.isFor(Arrays.asList("space.*.developer", "openid")));
+        assertFalse(matcher.isFor(new HashSet<>(Arrays.asList("openid"))));
+        assertFalse(matcher.isFor(null));
+    }
+}
@@ -12,7 +12,9 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.scim;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.cloudfoundry.identity.uaa.rest.Queryable;
@@ -66,6 +68,17 @@ public interface ScimGroupMembershipManager extends Queryable<ScimGroupMember> {
      */
     Set<ScimGroup> getGroupsWithMember(String memberId, boolean transitive) throws ScimResourceNotFoundException;
 
+    /**
+     * Retrieve all groups that each of the given members belongs to, with a
+     * few queries for all of them rather than some for each
+     * 
+     * @param memberIds
+     * @param transitive true means indirect/transitive membership is also
+     *            processed (nested groups)
+     * @return the groups of each member, keyed by member id
+     */
+    Map<String, Set<ScimGroup>> getGroupsWithMembers(Collection<String> memberIds, boolean transitive);
+
     /**
      * Retrieve a particular member's membership details
      * 
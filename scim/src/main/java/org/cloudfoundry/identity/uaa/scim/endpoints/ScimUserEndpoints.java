@@ -15,9 +15,11 @@ package org.cloudfoundry.identity.uaa.scim.endpoints;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -85,7 +87,6 @@ import org.springframework.web.servlet.View;
 @Controller
 @ManagedResource
 public class ScimUserEndpoints implements InitializingBean {
-    private static final String USER_APPROVALS_FILTER_TEMPLATE = "user_id eq \"%s\"";
     public static final String E_TAG = "ETag";
 
     private ScimUserProvisioning dao;
@@ -259,14 +260,12 @@ public class ScimUserEndpoints implements InitializingBean {
         List<ScimUser> result;
         try {
             result = dao.query(filter, sortBy, sortOrder.equals("ascending"));
-            for (ScimUser user : UaaPagingUtils.subList(result, startIndex, count)) {
-                if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)groups") || attributesCommaSeparated.isEmpty()) {
-                    syncGroups(user);
-                }
-                if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)approvals") || attributesCommaSeparated.isEmpty()) {
-                    syncApprovals(user);
-                }
-                input.add(user);
+            input.addAll(UaaPagingUtils.subList(result, startIndex, count));
+            if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)groups") || attributesCommaSeparated.isEmpty()) {
+                syncGroups(input);
+            }
+            if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)approvals") || attributesCommaSeparated.isEmpty()) {
+                syncApprovals(input);
             }
         } catch (IllegalArgumentException e) {
             throw new ScimException("Invalid filter expression: [" + filter + "]", HttpStatus.BAD_REQUEST);
@@ -294,36 +293,67 @@ public class ScimUserEndpoints implements InitializingBean {
         if (user == null) {
             return user;
         }
+        syncGroups(Collections.singletonList(user));
+        return user;
+    }
 
-        Set<ScimGroup> directGroups = membershipManager.getGroupsWithMember(user.getId(), false);
-        Set<ScimGroup> indirectGroups = membershipManager.getGroupsWithMember(user.getId(), true);
-        indirectGroups.removeAll(directGroups);
-        Set<ScimUser.Group> groups = new HashSet<ScimUser.Group>();
-        for (ScimGroup group : directGroups) {
-            groups.add(new ScimUser.Group(group.getId(), group.getDisplayName(), ScimUser.Group.Type.DIRECT));
+    private void syncGroups(List<ScimUser> users) {
+        if (users.isEmpty()) {
+            return;
         }
-        for (ScimGroup group : indirectGroups) {
-            groups.add(new ScimUser.Group(group.getId(), group.getDisplayName(), ScimUser.Group.Type.INDIRECT));
+        Map<String, ScimUser> byId = getUsersById(users);
+        Map<String, Set<ScimGroup>> direct = membershipManager.getGroupsWithMembers(byId.keySet(), false);
+        Map<String, Set<ScimGroup>> indirect = membershipManager.getGroupsWithMembers(byId.keySet(), true);
+        for (ScimUser user : users) {
+            Collection<ScimGroup> directGroups = getOrEmpty(direct, user.getId());
+            Set<ScimGroup> indirectGroups = new HashSet<ScimGroup>(getOrEmpty(indirect, user.getId()));
+            indirectGroups.removeAll(directGroups);
+            Set<ScimUser.Group> groups = new HashSet<ScimUser.Group>();
+            for (ScimGroup group : directGroups) {
+                groups.add(new ScimUser.Group(group.getId(), group.getDisplayName(), ScimUser.Group.Type.DIRECT));
+            }
+            for (ScimGroup group : indirectGroups) {
+                groups.add(new ScimUser.Group(group.getId(), group.getDisplayName(), ScimUser.Group.Type.INDIRECT));
+            }
+            user.setGroups(groups);
         }
-
-        user.setGroups(groups);
-        return user;
     }
 
     private ScimUser syncApprovals(ScimUser user) {
-        if (user == null || approvalStore == null) {
+        if (user == null) {
             return user;
         }
-        Set<Approval> approvals = new HashSet<Approval>(
-            approvalStore.getApprovals(String.format(USER_APPROVALS_FILTER_TEMPLATE, user.getId())));
-        Set<Approval> active = new HashSet<Approval>(approvals);
-        for (Approval approval : approvals) {
-            if (!approval.isCurrentlyActive()) {
-                active.remove(approval);
+        syncApprovals(Collections.singletonList(user));
+        return user;
+    }
+
+    private void syncApprovals(List<ScimUser> users) {
+        if (users.isEmpty() || approvalStore == null) {
+            return;
+        }
+        Map<String, List<Approval>> approvals = approvalStore.getApprovalsByUser(getUsersById(users).keySet());
+        for (ScimUser user : users) {
+            Set<Approval> active = new HashSet<Approval>();
+            for (Approval approval : getOrEmpty(approvals, user.getId())) {
+                if (approval.isCurrentlyActive()) {
+                    active.add(approval);
+                }
             }
+            user.setApprovals(active);
         }
-        user.setApprovals(active);
-        return user;
+    }
+
+    private static <T, C extends Collection<T>> Collection<T> getOrEmpty(Map<String, C> map, String key) {
+        C values = map.get(key);
+        return values == null ? Collections.<T> emptySet() : values;
+    }
+
+    private Map<String, ScimUser> getUsersById(List<ScimUser> users) {
+        Map<String, ScimUser> byId = new LinkedHashMap<String, ScimUser>();
+        for (ScimUser user : users) {
+            byId.put(user.getId(), user);
+        }
+        return byId;
     }
 
     @ExceptionHandler
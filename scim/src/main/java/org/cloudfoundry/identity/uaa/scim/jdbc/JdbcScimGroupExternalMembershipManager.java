@@ -36,6 +36,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -97,7 +98,9 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
         super(jdbcTemplate, pagingListFactory, new ScimGroupExternalMemberRowMapper());
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
-        setQueryConverter(new ScimSearchQueryConverter());
+        ScimSearchQueryConverter queryConverter = new ScimSearchQueryConverter();
+        queryConverter.setExactMatchAttributes(Arrays.asList("group_id", "origin"));
+        setQueryConverter(queryConverter);
     }
 
     @Override
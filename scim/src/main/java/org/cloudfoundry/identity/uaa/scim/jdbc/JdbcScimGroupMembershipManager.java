@@ -17,16 +17,22 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.rest.jdbc.AbstractQueryable;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.rest.jdbc.SimpleSearchQueryConverter;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMembershipManager;
@@ -36,13 +42,15 @@ import org.cloudfoundry.identity.uaa.scim.exception.InvalidScimResourceException
 import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -68,6 +76,17 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
     public static final String GET_GROUPS_BY_MEMBER_SQL = String.format(
                     "select distinct(group_id) from %s where member_id=?", MEMBERSHIP_TABLE);
 
+    public static final String GET_GROUPS_BY_MEMBERS_SQL = String.format(
+                    "select g.id,g.displayName,g.created,g.lastModified,g.version,m.member_id from %s m join %s g on g.id=m.group_id where m.member_id in (:ids)",
+                    MEMBERSHIP_TABLE, JdbcScimGroupProvisioning.GROUP_TABLE);
+
+    public static final String GET_USER_IDS_SQL = "select id from users where id in (:ids)";
+
+    /**
+     * The largest number of ids in one IN clause
+     */
+    private static final int MAX_IDS_PER_QUERY = 100;
+
     public static final String GET_MEMBERS_WITH_AUTHORITY_SQL = String.format(
                     "select %s from %s where group_id=? and lower(authorities) like ?", MEMBERSHIP_FIELDS,
                     MEMBERSHIP_TABLE);
@@ -86,12 +105,18 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
 
     private final RowMapper<ScimGroupMember> rowMapper = new ScimGroupMemberRowMapper();
 
+    private final RowMapper<ScimGroup> groupRowMapper = new JdbcScimGroupProvisioning.ScimGroupRowMapper();
+
     private ScimUserProvisioning userProvisioning;
 
     private ScimGroupProvisioning groupProvisioning;
 
     private Set<ScimGroup> defaultUserGroups = new HashSet<ScimGroup>();
 
+    private ExpiringLruCache<String, Set<ScimGroup>> groupClosureCache;
+
+    private final AtomicLong closureGeneration = new AtomicLong();
+
     public void setDefaultUserGroups(Set<String> groupNames) {
         for (String name : groupNames) {
             List<ScimGroup> g = groupProvisioning.query(String.format("displayName co \"%s\"", name));
@@ -104,6 +129,18 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
         }
     }
 
+    /**
+     * @param groupClosureCache a cache for the groups that each group is
+     *            nested in, directly or not, used to resolve transitive
+     *            membership (none by default). It is cleared whenever
+     *            memberships change through this manager, and should be
+     *            cleared with {@link #evictGroupClosures()} when groups are
+     *            updated or deleted.
+     */
+    public void setGroupClosureCache(ExpiringLruCache<String, Set<ScimGroup>> groupClosureCache) {
+        this.groupClosureCache = groupClosureCache;
+    }
+
     public void setScimUserProvisioning(ScimUserProvisioning userProvisioning) {
         this.userProvisioning = userProvisioning;
     }
@@ -118,6 +155,9 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
         super(jdbcTemplate,pagingListFactory,new ScimGroupMemberRowMapper());
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
+        SimpleSearchQueryConverter queryConverter = new SimpleSearchQueryConverter();
+        queryConverter.setExactMatchAttributes(Arrays.asList("group_id", "member_id", "member_type", "origin"));
+        setQueryConverter(queryConverter);
     }
 
     @Override
@@ -130,6 +170,13 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
         return MEMBERSHIP_TABLE;
     }
 
+    @Override
+    public int delete(String filter) {
+        int deleted = super.delete(filter);
+        evictGroupClosures();
+        return deleted;
+    }
+
     @Override
     public ScimGroupMember addMember(final String groupId, final ScimGroupMember member)
                     throws ScimResourceNotFoundException, MemberAlreadyExistsException {
@@ -152,6 +199,7 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
         } catch (DuplicateKeyException e) {
             throw new MemberAlreadyExistsException(member.getMemberId() + " is already part of the group: " + groupId);
         }
+        evictGroupClosures();
         return getMemberById(groupId, member.getMemberId());
     }
 
@@ -168,47 +216,141 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
     @Override
     public Set<ScimGroup> getGroupsWithMember(final String memberId, boolean transitive)
                     throws ScimResourceNotFoundException {
-        List<ScimGroup> results = new ArrayList<ScimGroup>();
-        getGroupsWithMember(results, memberId, transitive);
-        if (isUser(memberId)) {
-            results.addAll(defaultUserGroups);
+        return getGroupsWithMembers(Collections.singleton(memberId), transitive).get(memberId);
+    }
+
+    @Override
+    public Map<String, Set<ScimGroup>> getGroupsWithMembers(Collection<String> memberIds, boolean transitive) {
+        Map<String, Set<ScimGroup>> results = transitive && groupClosureCache != null ? getGroupsWithClosures(memberIds)
+                        : getGroupsByLevel(memberIds, transitive);
+        if (!defaultUserGroups.isEmpty()) {
+            for (String userId : getUserIds(memberIds)) {
+                // the id column is fixed width on some platforms
+                results.get(userId.trim()).addAll(defaultUserGroups);
+            }
         }
-        return new HashSet<ScimGroup>(results);
+        return results;
     }
 
-    private void getGroupsWithMember(List<ScimGroup> results, final String memberId, boolean transitive) {
-        if (results == null) {
-            return;
+    /**
+     * Resolves nested groups breadth first, with one query per level for all
+     * the members (or groups) reached at that level.
+     */
+    private Map<String, Set<ScimGroup>> getGroupsByLevel(Collection<String> memberIds, boolean transitive) {
+        Map<String, Set<ScimGroup>> results = new HashMap<String, Set<ScimGroup>>();
+        // the original members that reached each member (or group) of the current level
+        Map<String, Set<String>> reachedBy = new HashMap<String, Set<String>>();
+        for (String memberId : memberIds) {
+            results.put(memberId, new HashSet<ScimGroup>());
+            reachedBy.put(memberId, Collections.singleton(memberId));
         }
-        List<String> groupIds;
-        try {
-            groupIds = jdbcTemplate.query(GET_GROUPS_BY_MEMBER_SQL, new PreparedStatementSetter() {
-                @Override
-                public void setValues(PreparedStatement ps) throws SQLException {
-                    ps.setString(1, memberId);
+        while (!reachedBy.isEmpty()) {
+            Map<String, Set<String>> next = new HashMap<String, Set<String>>();
+            for (Map.Entry<String, List<ScimGroup>> entry : getGroupsByMember(reachedBy.keySet()).entrySet()) {
+                for (String origin : reachedBy.get(entry.getKey())) {
+                    for (ScimGroup group : entry.getValue()) {
+                        // a group seen before is not followed again, so nested group cycles end
+                        if (results.get(origin).add(group) && transitive) {
+                            Set<String> origins = next.get(group.getId());
+                            if (origins == null) {
+                                origins = new HashSet<String>();
+                                next.put(group.getId(), origins);
+                            }
+                            origins.add(origin);
+                        }
+                    }
                 }
-            }, new SingleColumnRowMapper<String>(String.class));
-        } catch (EmptyResultDataAccessException ex) {
-            groupIds = Collections.<String> emptyList();
+            }
+            reachedBy = next;
         }
+        return results;
+    }
 
-        for (String groupId : groupIds) {
-            ScimGroup group;
-            try {
-                group = groupProvisioning.retrieve(groupId);
-            } catch (ScimResourceNotFoundException ex) {
-                continue;
+    /**
+     * Finds the direct groups of the members and adds the groups that each of
+     * those is nested in, from the cache where possible.
+     */
+    private Map<String, Set<ScimGroup>> getGroupsWithClosures(Collection<String> memberIds) {
+        long generation = closureGeneration.get();
+        Map<String, Set<ScimGroup>> results = getGroupsByLevel(memberIds, false);
+        Map<String, Set<ScimGroup>> closures = new HashMap<String, Set<ScimGroup>>();
+        Set<String> missing = new HashSet<String>();
+        for (Set<ScimGroup> groups : results.values()) {
+            for (ScimGroup group : groups) {
+                Set<ScimGroup> closure = groupClosureCache.get(group.getId());
+                if (closure != null) {
+                    closures.put(group.getId(), closure);
+                } else {
+                    missing.add(group.getId());
+                }
             }
-            if (!results.contains(group)) { // to ensure we don't go into
-                                            // infinite recursion caused by
-                                            // nested group cycles
-                results.add(group);
-                if (transitive) {
-                    getGroupsWithMember(results, groupId, transitive);
+        }
+        if (!missing.isEmpty()) {
+            for (Map.Entry<String, Set<ScimGroup>> entry : getGroupsByLevel(missing, true).entrySet()) {
+                Set<ScimGroup> closure = Collections.unmodifiableSet(entry.getValue());
+                closures.put(entry.getKey(), closure);
+                groupClosureCache.put(entry.getKey(), closure);
+                if (closureGeneration.get() != generation) {
+                    // memberships changed while it was being resolved
+                    groupClosureCache.remove(entry.getKey());
                 }
             }
         }
+        for (Set<ScimGroup> groups : results.values()) {
+            for (ScimGroup group : new ArrayList<ScimGroup>(groups)) {
+                groups.addAll(closures.get(group.getId()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Forgets the cached nesting of every group, e.g. after a group has been
+     * renamed.
+     */
+    public void evictGroupClosures() {
+        if (groupClosureCache != null) {
+            closureGeneration.incrementAndGet();
+            groupClosureCache.clear();
+        }
+    }
+
+    private Map<String, List<ScimGroup>> getGroupsByMember(Collection<String> memberIds) {
+        final Map<String, List<ScimGroup>> groups = new HashMap<String, List<ScimGroup>>();
+        for (List<String> ids : partition(memberIds)) {
+            new NamedParameterJdbcTemplate(jdbcTemplate).query(GET_GROUPS_BY_MEMBERS_SQL,
+                            Collections.singletonMap("ids", ids), new RowCallbackHandler() {
+                                @Override
+                                public void processRow(ResultSet rs) throws SQLException {
+                                    String memberId = rs.getString(6);
+                                    List<ScimGroup> memberGroups = groups.get(memberId);
+                                    if (memberGroups == null) {
+                                        memberGroups = new ArrayList<ScimGroup>();
+                                        groups.put(memberId, memberGroups);
+                                    }
+                                    memberGroups.add(groupRowMapper.mapRow(rs, rs.getRow()));
+                                }
+                            });
+        }
+        return groups;
+    }
 
+    private List<String> getUserIds(Collection<String> memberIds) {
+        List<String> userIds = new ArrayList<String>();
+        for (List<String> ids : partition(memberIds)) {
+            userIds.addAll(new NamedParameterJdbcTemplate(jdbcTemplate).queryForList(GET_USER_IDS_SQL,
+                            Collections.singletonMap("ids", ids), String.class));
+        }
+        return userIds;
+    }
+
+    private List<List<String>> partition(Collection<String> ids) {
+        List<List<String>> result = new ArrayList<List<String>>();
+        List<String> all = new ArrayList<String>(ids);
+        for (int i = 0; i < all.size(); i += MAX_IDS_PER_QUERY) {
+            result.add(all.subList(i, Math.min(all.size(), i + MAX_IDS_PER_QUERY)));
+        }
+        return result;
     }
 
     @Override
@@ -252,6 +394,7 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
             }
         });
 
+        evictGroupClosures();
         if (updated != 1) {
             throw new IncorrectResultSizeDataAccessException("unexpected number of members updated", 1, updated);
         }
@@ -301,6 +444,7 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
             }
         });
 
+        evictGroupClosures();
         if (deleted != 1) {
             throw new IncorrectResultSizeDataAccessException("unexpected number of members removed", 1, deleted);
         }
@@ -318,6 +462,7 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
                 ps.setString(1, groupId);
             }
         });
+        evictGroupClosures();
         if (deleted != members.size()) {
             throw new IncorrectResultSizeDataAccessException("unexpected number of members removed", members.size(),
                             deleted);
@@ -337,6 +482,7 @@ public class JdbcScimGroupMembershipManager extends AbstractQueryable<ScimGroupM
                 ps.setString(1, memberId);
             }
         });
+        evictGroupClosures();
         int expectedDelete = isUser(memberId) ? groups.size() - defaultUserGroups.size() : groups.size();
         if (deleted != expectedDelete) {
             throw new IncorrectResultSizeDataAccessException("unexpected number of members removed", expectedDelete,
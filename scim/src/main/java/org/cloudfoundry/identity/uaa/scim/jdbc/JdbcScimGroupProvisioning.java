@@ -16,6 +16,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -68,7 +69,9 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup> impl
         super(jdbcTemplate, pagingListFactory, new ScimGroupRowMapper());
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
-        setQueryConverter(new ScimSearchQueryConverter());
+        ScimSearchQueryConverter queryConverter = new ScimSearchQueryConverter();
+        queryConverter.setExactMatchAttributes(Arrays.asList("id"));
+        setQueryConverter(queryConverter);
     }
 
     @Override
@@ -80,6 +83,11 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup> impl
         return GROUP_TABLE;
     }
 
+    @Override
+    protected String[] getKeyColumns() {
+        return new String[] {"id"};
+    }
+
 
     @Override
     public List<ScimGroup> retrieveAll() {
@@ -157,7 +165,7 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup> impl
         return group;
     }
 
-    private static final class ScimGroupRowMapper implements RowMapper<ScimGroup> {
+    static final class ScimGroupRowMapper implements RowMapper<ScimGroup> {
 
         @Override
         public ScimGroup mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -17,6 +17,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -100,7 +101,9 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser> implem
         super(jdbcTemplate, pagingListFactory, new ScimUserRowMapper());
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
-        setQueryConverter(new ScimSearchQueryConverter());
+        ScimSearchQueryConverter queryConverter = new ScimSearchQueryConverter();
+        queryConverter.setExactMatchAttributes(Arrays.asList("id", "origin"));
+        setQueryConverter(queryConverter);
     }
 
     @Override
@@ -123,6 +126,11 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser> implem
         return "users";
     }
 
+    @Override
+    protected String[] getKeyColumns() {
+        return new String[] {"id"};
+    }
+
     @Override
     public List<ScimUser> retrieveAll() {
         return query("id pr", "created", true);
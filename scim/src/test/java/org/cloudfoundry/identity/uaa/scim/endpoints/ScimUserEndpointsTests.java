@@ -18,9 +18,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
-import static org.mockito.Matchers.anyBoolean;
-import static org.mockito.Matchers.anyString;
-import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -31,6 +30,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -448,13 +448,47 @@ public class ScimUserEndpointsTests {
         assertTrue(values.contains(Arrays.asList("olds@vmware.com")));
     }
 
+    @Test
+    public void testFindUsersSyncsGroupsAndApprovalsOfEveryUserOnThePage() throws Exception {
+        ScimGroup inner = new ScimGroup("test1");
+        inner.setMembers(Arrays.asList(new ScimGroupMember(joel.getId())));
+        inner = groupEndpoints.createGroup(inner, new MockHttpServletResponse());
+        ScimGroup outer = new ScimGroup("test2");
+        outer.setMembers(Arrays.asList(new ScimGroupMember(inner.getId(), ScimGroupMember.Type.GROUP,
+                        ScimGroupMember.GROUP_MEMBER)));
+        groupEndpoints.createGroup(outer, new MockHttpServletResponse());
+        am.addApproval(new Approval(dale.getId(), "c1", "s1", 6000, Approval.ApprovalStatus.APPROVED));
+        am.addApproval(new Approval(dale.getId(), "c1", "s2", -6000, Approval.ApprovalStatus.APPROVED));
+
+        SearchResults<?> results = endpoints.findUsers(null, "id pr", "userName", "ascending", 1, 100);
+        assertEquals(2, results.getResources().size());
+        List<?> users = new ArrayList<Object>(results.getResources());
+        ScimUser first = (ScimUser) users.get(0);
+        ScimUser second = (ScimUser) users.get(1);
+        assertEquals(joel.getId(), first.getId());
+        assertEquals(dale.getId(), second.getId());
+
+        Map<String, ScimUser.Group.Type> types = new HashMap<String, ScimUser.Group.Type>();
+        for (ScimUser.Group group : first.getGroups()) {
+            types.put(group.getDisplay(), group.getType());
+        }
+        assertEquals(ScimUser.Group.Type.DIRECT, types.get("test1"));
+        assertEquals(ScimUser.Group.Type.INDIRECT, types.get("test2"));
+        for (ScimUser.Group group : second.getGroups()) {
+            assertTrue(group.getDisplay(), !group.getDisplay().startsWith("test"));
+        }
+        assertEquals(0, first.getApprovals().size());
+        assertEquals(1, second.getApprovals().size());
+    }
+
     @Test
     public void testFindUsersGroupsSyncedByDefault() throws Exception {
         ScimGroupMembershipManager mockgroupMembershipManager = mock(ScimGroupMembershipManager.class);
         endpoints.setScimGroupMembershipManager(mockgroupMembershipManager);
 
         endpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockgroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean());
+        verify(mockgroupMembershipManager).getGroupsWithMembers(anyCollectionOf(String.class), eq(false));
+        verify(mockgroupMembershipManager).getGroupsWithMembers(anyCollectionOf(String.class), eq(true));
 
         endpoints.setScimGroupMembershipManager(mm);
     }
@@ -465,7 +499,8 @@ public class ScimUserEndpointsTests {
         endpoints.setScimGroupMembershipManager(mockgroupMembershipManager);
 
         endpoints.findUsers("groups", "id pr", null, "ascending", 1, 100);
-        verify(mockgroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean());
+        verify(mockgroupMembershipManager).getGroupsWithMembers(anyCollectionOf(String.class), eq(false));
+        verify(mockgroupMembershipManager).getGroupsWithMembers(anyCollectionOf(String.class), eq(true));
 
         endpoints.setScimGroupMembershipManager(mm);
     }
@@ -487,7 +522,7 @@ public class ScimUserEndpointsTests {
         endpoints.setApprovalStore(mockApprovalStore);
 
         endpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovals(anyString());
+        verify(mockApprovalStore).getApprovalsByUser(anyCollectionOf(String.class));
 
         endpoints.setApprovalStore(am);
     }
@@ -498,7 +533,7 @@ public class ScimUserEndpointsTests {
         endpoints.setApprovalStore(mockApprovalStore);
 
         endpoints.findUsers("approvals", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovals(anyString());
+        verify(mockApprovalStore).getApprovalsByUser(anyCollectionOf(String.class));
 
         endpoints.setApprovalStore(am);
     }
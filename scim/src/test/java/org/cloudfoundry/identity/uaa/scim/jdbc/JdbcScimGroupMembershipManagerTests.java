@@ -14,9 +14,11 @@ package org.cloudfoundry.identity.uaa.scim.jdbc;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -34,6 +36,7 @@ import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.test.TestUtils;
 import org.cloudfoundry.identity.uaa.scim.validate.NullPasswordValidator;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.util.ExpiringLruCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -203,6 +206,89 @@ public class JdbcScimGroupMembershipManagerTests extends JdbcTestBase {
         assertEquals(4, groups.size());
     }
 
+    @Test
+    public void canGetGroupsForManyMembersAtOnce() {
+        addMembers();
+
+        Map<String, Set<ScimGroup>> direct = dao.getGroupsWithMembers(Arrays.asList("m1", "m2", "m3", "g2"), false);
+        Map<String, Set<ScimGroup>> transitive = dao.getGroupsWithMembers(Arrays.asList("m1", "m2", "m3", "g2"), true);
+        for (String id : Arrays.asList("m1", "m2", "m3", "g2")) {
+            assertEquals(id, dao.getGroupsWithMember(id, false), direct.get(id));
+            assertEquals(id, dao.getGroupsWithMember(id, true), transitive.get(id));
+        }
+        assertEquals(1, direct.get("m1").size());
+        assertEquals(3, direct.get("m3").size());
+        assertEquals(1, transitive.get("g2").size());
+    }
+
+    @Test
+    public void canGetGroupsForManyMembersEvenWhenCycleExistsInGroupHierarchy() {
+        addMember("g1", "m3", "USER", "READER");
+        addMember("g1", "g2", "GROUP", "READER");
+        addMember("g2", "g3", "GROUP", "READER");
+        addMember("g3", "g1", "GROUP", "READER");
+
+        Map<String, Set<ScimGroup>> groups = dao.getGroupsWithMembers(Arrays.asList("m3", "g3"), true);
+        assertEquals(4, groups.get("m3").size());
+        assertEquals(3, groups.get("g3").size());
+    }
+
+    @Test
+    public void nestedGroupsAreCachedUntilMembershipsChange() {
+        dao.setGroupClosureCache(new ExpiringLruCache<String, Set<ScimGroup>>(10, 60000));
+        addMember("g1", "m3", "USER", "READER");
+        addMember("g2", "g1", "GROUP", "READER");
+        assertEquals(3, dao.getGroupsWithMember("m3", true).size());
+
+        // changed behind its back, so the cached nesting of g1 is still used
+        addMember("g3", "g2", "GROUP", "READER");
+        assertEquals(3, dao.getGroupsWithMember("m3", true).size());
+
+        dao.addMember("g3", new ScimGroupMember("m1"));
+        assertEquals(4, dao.getGroupsWithMember("m3", true).size());
+        dao.removeMemberById("g3", "g2");
+        assertEquals(3, dao.getGroupsWithMember("m3", true).size());
+    }
+
+    @Test
+    public void renamedGroupsAreSeenOnceClosuresAreEvicted() {
+        dao.setGroupClosureCache(new ExpiringLruCache<String, Set<ScimGroup>>(10, 60000));
+        addMember("g1", "m3", "USER", "READER");
+        addMember("g2", "g1", "GROUP", "READER");
+        assertTrue(getDisplayNames(dao.getGroupsWithMember("m3", true)).contains("test2"));
+
+        ScimGroup group = gdao.retrieve("g2");
+        group.setDisplayName("renamed");
+        gdao.update("g2", group);
+        dao.evictGroupClosures();
+        Set<String> names = getDisplayNames(dao.getGroupsWithMember("m3", true));
+        assertTrue(names.contains("renamed"));
+        assertFalse(names.contains("test2"));
+    }
+
+    private Set<String> getDisplayNames(Collection<ScimGroup> groups) {
+        Set<String> names = new HashSet<String>();
+        for (ScimGroup group : groups) {
+            names.add(group.getDisplayName());
+        }
+        return names;
+    }
+
+    @Test
+    public void cachedNestedGroupsHandleCycles() {
+        dao.setGroupClosureCache(new ExpiringLruCache<String, Set<ScimGroup>>(10, 60000));
+        addMember("g1", "m3", "USER", "READER");
+        addMember("g1", "g2", "GROUP", "READER");
+        addMember("g2", "g3", "GROUP", "READER");
+        addMember("g3", "g1", "GROUP", "READER");
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, Set<ScimGroup>> groups = dao.getGroupsWithMembers(Arrays.asList("m3", "g3"), true);
+            assertEquals(4, groups.get("m3").size());
+            assertEquals(3, groups.get("g3").size());
+        }
+    }
+
     @Test
     public void canAddMember() throws Exception {
         validateCount(0);
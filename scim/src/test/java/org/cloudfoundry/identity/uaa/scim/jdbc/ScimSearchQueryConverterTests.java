@@ -17,23 +17,29 @@ import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter.ProcessedFil
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 
 public class ScimSearchQueryConverterTests {
 
     private ScimSearchQueryConverter filterProcessor = new ScimSearchQueryConverter();
 
+    private SimpleAttributeNameMapper mapper;
+
     @Before
     public void setUp() {
         Map<String, String> replaceWith = new HashMap<>();
         replaceWith.put("emails\\.value", "email");
         replaceWith.put("groups\\.display", "authorities");
         replaceWith.put("phoneNumbers\\.value", "phoneNumber");
-        filterProcessor.setAttributeNameMapper(new SimpleAttributeNameMapper(replaceWith));
+        mapper = new SimpleAttributeNameMapper(replaceWith);
+        filterProcessor.setAttributeNameMapper(mapper);
     }
 
     @Test
@@ -114,6 +120,69 @@ public class ScimSearchQueryConverterTests {
         validate(filterProcessor.convert("username pr", "emails.value", true), "username IS NOT NULL ORDER BY email ASC", 0);
     }
 
+    @Test
+    public void cachedPlansGiveTheSameResultsAsConvertingFromScratch() {
+        ScimSearchQueryConverter uncached = new ScimSearchQueryConverter();
+        uncached.setMaxCachedPlans(0);
+        uncached.setAttributeNameMapper(mapper);
+        String[] filters = {
+                        "username eq \"%s\"",
+                        "user_id eq \"%s\" and client_id eq \"%s\"",
+                        "displayName co \"%s\" or displayName sw \"%s\"",
+                        "username pr and active eq true and emails.value co \"%s\"",
+                        "meta.lastModified gt \"%s\" and meta.version eq 0"
+        };
+        String[][] values = { { "joe", "marissa", "1970-01-01T00:00:00.000Z" }, { "app", "x'y", "scim.%" } };
+        for (String filter : filters) {
+            for (String[] args : values) {
+                String converted = String.format(filter, (Object[]) args);
+                ProcessedFilter expected = uncached.convert(converted, "username", true);
+                for (int i = 0; i < 2; i++) {
+                    ProcessedFilter actual = filterProcessor.convert(converted, "username", true);
+                    assertEquals(converted, expected.getSql(), actual.getSql());
+                    assertEquals(converted, expected.getParams(), actual.getParams());
+                    assertEquals(expected.getParamPrefix(), actual.getParamPrefix());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void filtersOfTheSameShapeShareThePlanButNotTheValues() {
+        ProcessedFilter first = filterProcessor.convert("meta.created gt \"1970-01-01T00:00:00.000Z\" and username eq \"joe\"", null, false);
+        ProcessedFilter second = filterProcessor.convert("meta.created gt \"1971-01-01T00:00:00.000Z\" and username eq \"bob\"", null, false);
+        assertEquals(first.getSql(), second.getSql());
+        assertEquals("joe", first.getParams().get(first.getParamPrefix() + "1"));
+        assertEquals("bob", second.getParams().get(second.getParamPrefix() + "1"));
+        assertNotSame(first.getParams().get(first.getParamPrefix() + "0"), second.getParams().get(second.getParamPrefix() + "0"));
+        // a quoted value that is not a date changes the shape
+        validate(filterProcessor.convert("meta.created gt \"yesterday\" and username eq \"joe\"", null, false),
+                        "(LOWER(created) > LOWER(:__value_0) AND LOWER(username) = LOWER(:__value_1))", 2);
+    }
+
+    @Test
+    public void mapperChangesAreNotHiddenByCachedPlans() {
+        validate(filterProcessor.convert("emails.value eq \"joe\"", null, false), "LOWER(email) = LOWER(:__value_0)", 1);
+        filterProcessor.setAttributeNameMapper(new SimpleAttributeNameMapper(Collections.singletonMap("emails\\.value", "mail")));
+        validate(filterProcessor.convert("emails.value eq \"joe\"", null, false), "LOWER(mail) = LOWER(:__value_0)", 1);
+    }
+
+    @Test
+    public void exactMatchAttributesAreComparedAsGiven() {
+        filterProcessor.setExactMatchAttributes(Arrays.asList("ID", "origin"));
+        validate(filterProcessor.convert("id eq \"abc\" and origin eq \"uaa\" and username eq \"joe\"", null, false),
+                        "((id = :__value_0 AND origin = :__value_1) AND LOWER(username) = LOWER(:__value_2))", 3);
+        validate(filterProcessor.convert("meta.id eq \"abc\"", null, false), "id = :__value_0", 1);
+        validate(filterProcessor.convert("id sw \"abc\"", null, false), "id LIKE :__value_0", 1);
+    }
+
+    @Test
+    public void exactMatchAttributeChangesAreNotHiddenByCachedPlans() {
+        validate(filterProcessor.convert("client_id eq \"app\"", null, false), "LOWER(client_id) = LOWER(:__value_0)", 1);
+        filterProcessor.setExactMatchAttributes(Collections.singleton("client_id"));
+        validate(filterProcessor.convert("client_id eq \"app\"", null, false), "client_id = :__value_0", 1);
+    }
+
     private void validate(ProcessedFilter filter, String expectedSql, int expectedParamCount, Class... types) {
         assertNotNull(filter);
         expectedSql = expectedSql.replaceAll("__value_", filter.getParamPrefix());
@@ -33,7 +33,7 @@ import junit.framework.Assert;
 import org.apache.commons.codec.binary.Base64;
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
-import org.cloudfoundry.identity.uaa.audit.JdbcAuditService;
+import org.cloudfoundry.identity.uaa.audit.AsyncAuditService;
 import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
 import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
 import org.cloudfoundry.identity.uaa.audit.event.ApprovalModifiedEvent;
@@ -270,7 +270,7 @@ public class AuditCheckMvcMockTests {
             .param("username", jacob.getUserName())
             .param("password", "notvalid");
         int attempts = 8;
-        UaaAuditService auditService = webApplicationContext.getBean(JdbcAuditService.class);
+        UaaAuditService auditService = webApplicationContext.getBean(AsyncAuditService.class);
         for (int i=0; i<attempts; i++) {
             mockMvc.perform(loginPost)
                 .andExpect(status().isUnauthorized())